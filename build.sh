@@ -2,10 +2,11 @@
 # Build of the StaTIX
 # The only optional parameter is the jar output dir
 
-USAGE="$0 [-p] [-c] [-v] [<outdir>]
+USAGE="$0 [-p] [-c] [-n] [-v] [<outdir>]
   -p,--pack - build the tarball besides the executables
   -c,--classes  - retain classes after the build, useful for the frequent
     modification and recompilation of some files.
+  -n,--no-check  - skip the self-check of the evaluation paths on the synthetic data
     
     Compilation or the single file (.java to .class):
     $ javac -cp lib/\*:src -d classes/ src/info/exascale/statix/main.java
@@ -14,6 +15,7 @@ USAGE="$0 [-p] [-c] [-v] [<outdir>]
 # Process input options
 TARBALL=0  # Make tarball
 DELCLS=1  # Delete the classes after the jar building
+SELFCHECK=1  # Run the self-check of the built classes
 VERBOSE=0  # Verbose output, useful to identify errors
 
 while [ $1 ]
@@ -27,6 +29,10 @@ do
 		DELCLS=0
 		shift
 		;;
+	-n|--no-check)
+		SELFCHECK=0
+		shift
+		;;
 	-v|--verbose)
 		VERBOSE=1
 		shift
@@ -108,6 +114,38 @@ then
 	echo "Build failed, errcode: $ERRCOMPILE"
 	exit $ERRCOMPILE
 fi
+# Compile the optional vectorized similarity kernel, which requires Java 16+ with the incubator module
+if java --list-modules 2> /dev/null | grep -q jdk.incubator.vector
+then
+	javac $JCFLAGS --add-modules jdk.incubator.vector -cp "$CLSDIR" -d "$CLSDIR" src/info/exascale/statix/simd/*.java
+	if [ $? -ne 0 ]
+	then
+		echo "WARNING, the vectorized kernel is not built, the scalar one will be used"
+	fi
+else
+	echo "The vectorized kernel is skipped since the jdk.incubator.vector module is not available"
+fi
+# Self-check of the optimized evaluation paths against the straightforward ones, fail the build on a mismatch
+if [ $SELFCHECK -ne 0 ]
+then
+	CHKDIR="$OUTDIR"/checks  # Self-check classes output directory, which are not included to the jar
+	JVMOPTS=""
+	if [ -f "$CLSDIR"/info/exascale/statix/simd/VectorIntersection.class ]
+	then
+		JVMOPTS="--add-modules jdk.incubator.vector"
+	fi
+	echo "Running the self-check..."
+	mkdir -p "$CHKDIR"
+	javac $JCFLAGS -cp lib/\*:"$CLSDIR" -d "$CHKDIR" test/info/exascale/statix/*.java \
+		&& java -ea $JVMOPTS -cp lib/\*:"$CLSDIR":"$CHKDIR" info.exascale.statix.SelfCheck
+	ERRCHECK=$?
+	rm -rf "$CHKDIR"
+	if [ $ERRCHECK -ne 0 ]
+	then
+		echo "Self-check failed, errcode: $ERRCHECK"
+		exit $ERRCHECK
+	fi
+fi
 
 # Make the jar file ------------------------------------------------------------
 echo Building the ${APP}.jar in the \"$OUTDIR\" from \"$CLSDIR\"...
@@ -14,4 +14,10 @@
 # Note: execution from the jar causes some issues with the Common CLI linking
 # Note: -ea enables asserts, -da - disables (default)
 #LD_LIBRARY_PATH=lib java -ea:info.exascale.statix... -cp lib/\*:./\* info.exascale.statix.main $@
-LD_LIBRARY_PATH=lib java -cp lib/\*:./\* info.exascale.statix.main $@
+# Enable the vectorized similarity kernel if the incubator module is available (Java 16+)
+JOPTS=""
+if java --list-modules 2> /dev/null | grep -q jdk.incubator.vector
+then
+	JOPTS="--add-modules jdk.incubator.vector"
+fi
+LD_LIBRARY_PATH=lib java $JOPTS -cp lib/\*:./\* info.exascale.statix.main $@
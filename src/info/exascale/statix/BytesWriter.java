@@ -0,0 +1,91 @@
+package info.exascale.statix;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+
+//! Buffered writer of the UTF-8 encoded text formatting numbers directly to the bytes
+//!
+//! The numbers and ASCII strings are written without the intermediate String and char[]
+//! objects, which is essential for the outputs consisting of millions of ids.
+public class BytesWriter extends BufferedOutputStream {
+	private static final int  bufSize = 1 << 16;  // Default buffer size, bytes
+
+	public BytesWriter(OutputStream out) {
+		super(out, bufSize);
+	}
+
+	//! Open the output file
+	//!
+	//! @param fname  - file name to be (re)written
+	public BytesWriter(String fname) throws IOException {
+		this(Files.newOutputStream(Paths.get(fname)));
+	}
+
+	//! Write the non-negative number in the decimal format
+	//!
+	//! @param val  - the value to be written
+	public void writeNumber(long val) throws IOException {
+		if(val < 0)
+			throw new IllegalArgumentException("The value should be non-negative: " + val);
+		// Note: max long has 19 digits
+		if(buf.length - count < 20)
+			flushBuffer();
+		int  end = count;
+		long  v = val;
+		do {
+			++end;
+			v /= 10;
+		} while(v != 0);
+		count = end;
+		do {
+			buf[--end] = (byte)('0' + val % 10);
+			val /= 10;
+		} while(val != 0);
+	}
+
+	//! Write the id as an unsigned number
+	//!
+	//! @param id  - the id, possibly having the most significant bit set
+	public void writeId(int id) throws IOException {
+		writeNumber(Integer.toUnsignedLong(id));
+	}
+
+	//! Write a single ASCII character
+	public void writeChar(char c) throws IOException {
+		write(c);
+	}
+
+	//! Write the string in UTF-8 with the fast path for ASCII
+	//!
+	//! @param str  - the string to be written
+	public void writeString(String str) throws IOException {
+		final int  len = str.length();
+		int  i = 0;
+		while(i < len) {
+			if(count == buf.length)
+				flushBuffer();
+			final int  end = Math.min(len, i + buf.length - count);
+			for(; i < end; ++i) {
+				final char  c = str.charAt(i);
+				if(c >= 0x80) {
+					write(str.substring(i).getBytes(StandardCharsets.UTF_8));
+					return;
+				}
+				buf[count++] = (byte)c;
+			}
+		}
+	}
+
+	//! Write the buffered bytes to the underlying stream
+	private void flushBuffer() throws IOException {
+		if(count != 0) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package info.exascale.statix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+
+//! Classifier of the new instances (subjects) by the centroids of the inferred types (clusters)
+//!
+//! The centroid of each cluster is the mean weighted property vector of its members (considering
+//! the shares of the fuzzy members), i.e. the weight of each property scaled by its frequency in the
+//! cluster. A new instance is assigned to the cluster having the max similarity with its properties
+//! evaluated by the similarity kernel. The common contribution of the property is the product of its
+//! weight and centroid weight for the kernels of the squared weights (e.g. Cosine) and the centroid
+//! weight otherwise (e.g. weighted Jaccard), the centroid mass is accumulated the same way. So, the
+//! similarity to the centroid of the single-member cluster is equal to the similarity of the instances.
+//! The clusters are identified by their index (line) in the .cnl file omitting the comments, which
+//! corresponds to the line in the cluster labels file.
+public class CentroidClassifier {
+	public static final int  batchSize = 1 << 14;  // The number of instances assigned in parallel before the output
+	private static final int  magic = 0x43585453;  // "STXC" in the little endian
+
+	private final SimilarityKernel  simkern;  // Similarity kernel
+	private final UriDictionary  propsNames;  // Names of the properties present in the centroids
+	private final int[]  begs;  // Begins of the centroid properties, clusters number + 1
+	private final int[]  cprops;  // Ordered property ids of the centroids
+	private final float[]  cweights;  // Centroid weights of the properties
+	private final double[]  masses;  // Accumulated contributions of the centroid weights by the cluster
+	private final float[]  weights;  // Property weights by the property id
+	// Inverted index of the centroids: clusters and their weights by the property id
+	private final int[]  pbegs;  // Begins of the property clusters, properties number + 1
+	private final int[]  pclusters;  // Cluster indices ordered by the properties
+	private final float[]  pweights;  // Centroid weights of the properties ordered by the properties
+
+	//! Assigned cluster
+	public static class Assignment {
+		public final int  cluster;  // Cluster index, -1 if the instance is not similar to any cluster
+		public final double  similarity;
+
+		public Assignment(int cluster, double similarity) {
+			this.cluster = cluster;
+			this.similarity = similarity;
+		}
+	}
+
+
+	private CentroidClassifier(SimilarityKernel simkern, UriDictionary propsNames, float[] weights, int[] begs, int[] cprops, float[] cweights) {
+		this.simkern = simkern;
+		this.propsNames = propsNames;
+		this.weights = weights;
+		this.begs = begs;
+		this.cprops = cprops;
+		this.cweights = cweights;
+		final int  size = begs.length - 1;
+		masses = new double[size];
+		for(int ic = 0; ic < size; ++ic) {
+			double  mass = 0;
+			for(int k = begs[ic]; k < begs[ic + 1]; ++k)
+				mass += simkern.contribution(cweights[k]);
+			masses[ic] = mass;
+		}
+		// Build the inverted index
+		pbegs = new int[weights.length + 1];
+		for(int prop: cprops)
+			++pbegs[prop + 1];
+		for(int i = 0; i < weights.length; ++i)
+			pbegs[i + 1] += pbegs[i];
+		pclusters = new int[cprops.length];
+		pweights = new float[cprops.length];
+		final int[]  pos = Arrays.copyOf(pbegs, weights.length);
+		for(int ic = 0; ic < size; ++ic)
+			for(int k = begs[ic]; k < begs[ic + 1]; ++k) {
+				final int  ip = pos[cprops[k]]++;
+				pclusters[ip] = ic;
+				pweights[ip] = cweights[k];
+			}
+	}
+
+	//! Build the classifier from the clusters of the loaded instances
+	//!
+	//! @param csmat  - similarity matrix (loaded instances and property weights)
+	//! @param clsFName  - clusters of the instances in the .cnl format: member ids (optionally
+	//! 	with the shares "<id>:<share>") per line, the filtering mask of the ids is omitted
+	//! @param simkern  - similarity kernel
+	//! @return  - the classifier
+	public static CentroidClassifier build(SimilarityMatix csmat, String clsFName, SimilarityKernel simkern) throws IOException {
+		final PropertiesStore  props = csmat.properties();
+		final float[]  iweights = csmat.weights();
+		// Properties having non-zero weights are retained in order of their ids
+		final int[]  pids = new int[iweights.length];
+		UriDictionary  propsNames = new UriDictionary();
+		for(int i = 0; i < iweights.length; ++i)
+			pids[i] = iweights[i] != 0 ? propsNames.add(csmat.propertyName(i)) : -1;
+		final float[]  weights = new float[propsNames.size()];
+		for(int i = 0; i < iweights.length; ++i)
+			if(pids[i] != -1)
+				weights[pids[i]] = iweights[i];
+
+		final double[]  acc = new double[iweights.length];  // Accumulated shares of the properties in the cluster
+		final boolean[]  marked = new boolean[iweights.length];
+		final IdsList  touched = new IdsList();
+		IdsList  begs = new IdsList();
+		begs.add(0);
+		IdsList  cprops = new IdsList();
+		float[]  cweights = new float[64];
+		try(BufferedReader  reader = Files.newBufferedReader(Paths.get(clsFName))) {
+			String  line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#"))
+					continue;
+				double  total = 0;  // Total share of the members
+				for(String member: line.split("\\s+")) {
+					final int  idel = member.indexOf(':');
+					final int  iinst = Integer.parseUnsignedInt(idel != -1 ? member.substring(0, idel) : member) & ~(1 << 31);
+					final double  share = idel != -1 ? Double.parseDouble(member.substring(idel + 1)) : 1;
+					if(iinst >= props.size())
+						throw new IllegalArgumentException("The cluster member is out of the loaded instances: " + member);
+					total += share;
+					for(int k = props.begin(iinst), end = props.end(iinst); k < end; ++k) {
+						final int  prop = props.property(k);
+						if(pids[prop] == -1)
+							continue;
+						if(!marked[prop]) {
+							marked[prop] = true;
+							touched.add(prop);
+						}
+						acc[prop] += share;
+					}
+				}
+				// Form the centroid in order of the property ids
+				Arrays.sort(touched.ids, 0, touched.size);
+				for(int i = 0; i < touched.size; ++i) {
+					final int  prop = touched.ids[i];
+					if(cprops.size == cweights.length)
+						cweights = Arrays.copyOf(cweights, cweights.length * 2);
+					cweights[cprops.size] = (float)(iweights[prop] * acc[prop] / total);
+					cprops.add(pids[prop]);
+					acc[prop] = 0;
+					marked[prop] = false;
+				}
+				touched.size = 0;
+				begs.add(cprops.size);
+			}
+		}
+		CentroidClassifier  classifier = new CentroidClassifier(simkern, propsNames, weights
+			, Arrays.copyOf(begs.ids, begs.size), Arrays.copyOf(cprops.ids, cprops.size), Arrays.copyOf(cweights, cprops.size));
+		System.out.println("The centroids classifier is built for " + classifier.size() + " clusters and "
+			+ propsNames.size() + " properties");
+		return classifier;
+	}
+
+	//! The number of clusters
+	public int size()  { return begs.length - 1; }
+
+	//! Similarity kernel
+	public SimilarityKernel kernel()  { return simkern; }
+
+	//! Assign the instance to the most similar cluster
+	//!
+	//! @param qprops  - ordered unique property ids of the classifier
+	//! @param qnum  - the number of properties
+	//! @param scores  - zeroed accumulators of the common weights by the cluster, zeroed on return
+	//! @param touched  - buffer of the clusters having the common properties, clusters number
+	//! @param marked  - unset marks of the touched clusters, unset on return
+	//! @return  - the assignment, the clusters having equal similarity are prioritized by the index
+	private Assignment assign(int[] qprops, int qnum, double[] scores, int[] touched, boolean[] marked) {
+		final boolean  squared = simkern.squared();
+		double  qmass = 0;
+		int  ntouched = 0;
+		// Accumulate the common weights in order of the property ids
+		for(int i = 0; i < qnum; ++i) {
+			final int  prop = qprops[i];
+			final double  weight = weights[prop];
+			qmass += simkern.contribution(weight);
+			for(int ip = pbegs[prop]; ip < pbegs[prop + 1]; ++ip) {
+				final int  ic = pclusters[ip];
+				if(!marked[ic]) {
+					marked[ic] = true;
+					touched[ntouched++] = ic;
+				}
+				scores[ic] += squared ? weight * pweights[ip] : pweights[ip];
+			}
+		}
+		int  best = -1;
+		double  bestsim = 0;
+		for(int i = 0; i < ntouched; ++i) {
+			final int  ic = touched[i];
+			final double  common = scores[ic];
+			scores[ic] = 0;
+			marked[ic] = false;
+			final double  sim = simkern.combine(common, qmass, masses[ic]);
+			if(sim > bestsim || (sim == bestsim && sim > 0 && ic < best)) {
+				best = ic;
+				bestsim = sim;
+			}
+		}
+		return new Assignment(best, bestsim);
+	}
+
+	//! Assign the instances (subjects) of the dataset to the clusters
+	//!
+	//! The instances are assigned in parallel batches and output in order of their first occurrence
+	//! in the dataset in the tab separated format: <subject> <cluster> <similarity>,
+	//! the cluster is -1 if the instance is not similar to any cluster.
+	//! @param n3DataSet  - N3/quad RDF dataset of the new instances
+	//! @param outFName  - output file name
+	public void assign(String n3DataSet, String outFName) throws IOException {
+		// Load the instances properties omitting the unknown properties
+		UriDictionary  names = new UriDictionary();
+		ArrayList<IdsList>  instsProps = new ArrayList<IdsList>();
+		try(BufferedReader  reader = Files.newBufferedReader(Paths.get(n3DataSet))) {
+			String  line;
+			while((line = reader.readLine()) != null) {
+				final String[]  s = SimilarityMatix.parseTriple(line);
+				if(s == null)
+					continue;
+				final int  iinst = names.add(s[0]);
+				if(iinst == instsProps.size())
+					instsProps.add(new IdsList());
+				final int  prop = propsNames.id(s[1]);
+				if(prop != -1)
+					instsProps.get(iinst).add(prop);
+			}
+		}
+
+		// Assign the batches in parallel and output them
+		final ConcurrentLinkedQueue<Object[]>  scratches = new ConcurrentLinkedQueue<Object[]>();
+		final Assignment[]  batch = new Assignment[Math.min(batchSize, instsProps.size())];
+		int  unassigned = 0;
+		try(BytesWriter  outf = new BytesWriter(outFName)) {
+			for(int ib = 0; ib < instsProps.size(); ib += batchSize) {
+				final int  base = ib;
+				final int  num = Math.min(batchSize, instsProps.size() - ib);
+				IntStream.range(0, num).parallel().forEach(i -> {
+					Object[]  scratch = scratches.poll();
+					if(scratch == null)
+						scratch = new Object[] {new double[size()], new int[size()], new boolean[size()]};
+					final IdsList  qprops = instsProps.get(base + i);
+					qprops.sortUnique();
+					batch[i] = assign(qprops.ids, qprops.size, (double[])scratch[0], (int[])scratch[1]
+						, (boolean[])scratch[2]);
+					instsProps.set(base + i, null);
+					scratches.offer(scratch);
+				});
+				for(int i = 0; i < num; ++i) {
+					names.write(base + i, outf);
+					outf.writeChar('\t');
+					if(batch[i].cluster == -1) {
+						outf.writeString("-1");
+						++unassigned;
+					} else outf.writeNumber(batch[i].cluster);
+					outf.writeChar('\t');
+					outf.writeString(Double.toString(batch[i].similarity));
+					outf.writeChar('\n');
+				}
+			}
+		}
+		System.out.println(instsProps.size() - unassigned + " of " + instsProps.size()
+			+ " instances are assigned to the clusters: " + outFName);
+	}
+
+	//! Save the classifier
+	//!
+	//! @param file  - the output file
+	public void save(Path file) throws IOException {
+		try(DataOutputStream  out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(magic);
+			out.writeUTF(simkern.name());
+			propsNames.save(out);
+			for(float weight: weights)
+				out.writeFloat(weight);
+			out.writeInt(size());
+			for(int ic = 0; ic < size(); ++ic) {
+				out.writeInt(begs[ic + 1] - begs[ic]);
+				for(int k = begs[ic]; k < begs[ic + 1]; ++k) {
+					out.writeInt(cprops[k]);
+					out.writeFloat(cweights[k]);
+				}
+			}
+		}
+		System.out.println("The centroids classifier is saved to: " + file);
+	}
+
+	//! Load the classifier
+	//!
+	//! @param file  - the classifier file formed by save()
+	//! @return  - the classifier
+	public static CentroidClassifier load(Path file) throws IOException {
+		try(DataInputStream  inp = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(inp.readInt() != magic)
+				throw new IOException("The file does not contain the centroids classifier: " + file);
+			final SimilarityKernel  simkern = SimilarityKernel.create(inp.readUTF());
+			final UriDictionary  propsNames = UriDictionary.load(inp);
+			final float[]  weights = new float[propsNames.size()];
+			for(int i = 0; i < weights.length; ++i)
+				weights[i] = inp.readFloat();
+			final int[]  begs = new int[inp.readInt() + 1];
+			IdsList  cprops = new IdsList();
+			float[]  cweights = new float[64];
+			for(int ic = 0; ic < begs.length - 1; ++ic) {
+				final int  n = inp.readInt();
+				for(int k = 0; k < n; ++k) {
+					final int  prop = inp.readInt();
+					if(prop < 0 || prop >= weights.length)
+						throw new IOException("The centroids classifier is corrupted at the cluster #" + ic);
+					if(cprops.size == cweights.length)
+						cweights = Arrays.copyOf(cweights, cweights.length * 2);
+					cweights[cprops.size] = inp.readFloat();
+					cprops.add(prop);
+				}
+				begs[ic + 1] = cprops.size;
+			}
+			return new CentroidClassifier(simkern, propsNames, weights, begs
+				, Arrays.copyOf(cprops.ids, cprops.size), Arrays.copyOf(cweights, cprops.size));
+		}
+	}
+}
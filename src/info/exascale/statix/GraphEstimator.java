@@ -0,0 +1,226 @@
+package info.exascale.statix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+
+//! Estimator of the input graph (similarity links) by the sampled pairs of instances
+//!
+//! The rows (source instances) are sampled stratified by the number of their properties and each
+//! sampled row is evaluated against the uniformly sampled columns (destination instances), or against
+//! all of them for the small datasets. The min similarity and the links cutting are simulated on the
+//! sampled rows the same way as they are applied on the graph construction.
+//! @note The memory consumption of the native clustering lib is modeled by the rough constants per
+//! 	node and link, so the projection is indicative
+public class GraphEstimator {
+	public static final int  rowsMax = 256;  // Max number of the sampled rows
+	public static final long  pairsDefault = 1 << 21;  // Default number of the sampled pairs
+	public static final int  nodeBytes = 192;  // Native memory of the graph node, bytes
+	public static final int  linkBytes = 32;  // Native memory of the link, each edge is stored by both nodes, bytes
+	public static final int  pendingBytes = 12;  // Memory of the back link pending on the links cutting, bytes
+	public static final float  clusteringFactor = 2;  // Peak memory of the hierarchy building relative to the input graph
+
+	private final int  size;  // The number of instances
+	private final double[]  scales;  // Scale of the sampled columns of the row to all columns
+	private final float[][]  weights;  // Ordered positive similarities of the sampled pairs of the row
+	private final long  pairs;  // The number of evaluated pairs
+	private final long  nanos;  // Evaluation time of the pairs summed over the threads, ns
+
+
+	private GraphEstimator(int size, double[] scales, float[][] weights, long pairs, long nanos) {
+		this.size = size;
+		this.scales = scales;
+		this.weights = weights;
+		this.pairs = pairs;
+		this.nanos = nanos;
+	}
+
+	//! Sample the similarities of the instances
+	//!
+	//! @param csmat  - similarity matrix (loaded instances and property weights)
+	//! @param simkern  - similarity kernel
+	//! @param pairsMax  - max number of the evaluated pairs
+	//! @param seed  - seed of the sampling
+	//! @return  - the estimator
+	public static GraphEstimator sample(SimilarityMatix csmat, final SimilarityKernel simkern, long pairsMax, long seed) {
+		final int  size = csmat.instancesNum();
+		if(size < 2)
+			return new GraphEstimator(size, new double[0], new float[0][], 0, 0);
+		if(pairsMax < 1)
+			throw new IllegalArgumentException("The number of the sampled pairs should be positive: " + pairsMax);
+		csmat.prepare(simkern);
+		final PropertiesStore  props = csmat.properties();
+
+		// Order the instances by the number of their properties to stratify the rows
+		final long[]  keys = new long[size];
+		for(int i = 0; i < size; ++i)
+			keys[i] = (long)props.count(i) << 32 | i;
+		Arrays.sort(keys);
+		final int  nrows = (int)Math.min(size, Math.min(rowsMax, pairsMax));
+		final int  cols = (int)Math.min(size - 1, Math.max(1, pairsMax / nrows));
+		final Random  rand = new Random(seed);
+		final int[]  rows = new int[nrows];
+		final long[]  seeds = new long[nrows];
+		for(int r = 0; r < nrows; ++r) {
+			// Random instance of the stratum
+			final long  beg = (long)size * r / nrows;
+			final long  end = (long)size * (r + 1) / nrows;
+			rows[r] = (int)keys[(int)(beg + (long)(rand.nextDouble() * (end - beg)))];
+			seeds[r] = rand.nextLong();
+		}
+
+		final double[]  scales = new double[nrows];
+		final float[][]  weights = new float[nrows][];
+		final long[]  rnanos = new long[nrows];  // Evaluation time of the rows
+		IntStream.range(0, nrows).parallel().forEach(r -> {
+			final long  start = System.nanoTime();
+			final int  i = rows[r];
+			float[]  ws = new float[cols];
+			int  n = 0;
+			if(cols == size - 1) {
+				for(int j = 0; j < size; ++j) {
+					if(j == i)
+						continue;
+					final double  sim = csmat.similarity(i, j, simkern);
+					if(sim > 0)
+						ws[n++] = (float)sim;
+				}
+			} else {
+				final Random  rcols = new Random(seeds[r]);
+				for(int k = 0; k < cols; ++k) {
+					int  j = rcols.nextInt(size - 1);
+					if(j >= i)
+						++j;
+					final double  sim = csmat.similarity(i, j, simkern);
+					if(sim > 0)
+						ws[n++] = (float)sim;
+				}
+			}
+			ws = Arrays.copyOf(ws, n);
+			Arrays.sort(ws);
+			weights[r] = ws;
+			scales[r] = (double)(size - 1) / cols;
+			rnanos[r] = System.nanoTime() - start;
+		});
+		return new GraphEstimator(size, scales, weights, (long)nrows * cols, Arrays.stream(rnanos).sum());
+	}
+
+	//! The number of instances (graph nodes)
+	public int size()  { return size; }
+
+	//! The number of evaluated pairs
+	public long pairs()  { return pairs; }
+
+	//! Evaluation rate of the pairs by a single thread, pairs/sec
+	public double pairsRate()  { return nanos > 0 ? pairs * 1E9 / nanos : 0; }
+
+	//! Ratio of the similar (linked) pairs of instances
+	public double density() {
+		if(pairs == 0)
+			return 0;
+		long  linked = 0;
+		for(float[] ws: weights)
+			linked += ws.length;
+		return (double)linked / pairs;
+	}
+
+	//! Ordered positive similarities of all sampled pairs
+	public float[] similarities() {
+		int  n = 0;
+		for(float[] ws: weights)
+			n += ws.length;
+		final float[]  sims = new float[n];
+		n = 0;
+		for(float[] ws: weights) {
+			System.arraycopy(ws, 0, sims, n, ws.length);
+			n += ws.length;
+		}
+		Arrays.sort(sims);
+		return sims;
+	}
+
+	//! Index of the first similarity that is not less than the value
+	static int lowerBound(float[] ws, float val) {
+		int  beg = 0;
+		int  end = ws.length;
+		while(beg < end) {
+			final int  mid = (beg + end) >>> 1;
+			if(ws[mid] < val)
+				beg = mid + 1;
+			else end = mid;
+		}
+		return beg;
+	}
+
+	//! Expected number of the links supplied to the graph
+	//!
+	//! Without the links cutting each similar pair is supplied once (by the preceding instance), otherwise
+	//! the retained links of both directions are supplied, so the number is the upper bound of the edges.
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @param minsim  - min similarity of the linked instances
+	//! @param rdsmarg  - minimal number of the node links to apply the links cutting
+	//! @return  - the number of links
+	public double links(float lnscut, float minsim, int rdsmarg) {
+		if(weights.length == 0)
+			return 0;
+		double  total = 0;  // Retained links of the sampled rows
+		for(int r = 0; r < weights.length; ++r) {
+			final float[]  ws = weights[r];
+			final int  beg = lowerBound(ws, minsim);
+			final int  cnt = ws.length - beg;
+			int  kept = cnt;
+			if(lnscut > 0 && cnt != 0 && cnt * scales[r] >= rdsmarg) {
+				double  wsum = 0;
+				for(int k = beg; k < ws.length; ++k)
+					wsum += ws[k];
+				final float  wmarg = ws[beg] + (float)(wsum / cnt - ws[beg]) * lnscut;
+				if(wmarg > ws[beg])
+					kept = ws.length - lowerBound(ws, wmarg);
+			}
+			total += kept * scales[r];
+		}
+		total *= (double)size / weights.length;
+		return lnscut > 0 ? total : total / 2;
+	}
+
+	//! Projected peak memory of the graph construction and clustering
+	//!
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @param minsim  - min similarity of the linked instances
+	//! @param rdsmarg  - minimal number of the node links to apply the links cutting
+	//! @return  - the memory, bytes
+	public long memory(float lnscut, float minsim, int rdsmarg) {
+		final double  graph = (double)size * nodeBytes + links(lnscut, minsim, rdsmarg) * 2 * linkBytes;
+		// The back links of the succeeding instances are pending on the links cutting
+		final double  pending = lnscut > 0 ? links(0, minsim, rdsmarg) * pendingBytes : 0;
+		return (long)Math.max(graph + pending, graph * clusteringFactor);
+	}
+
+	//! Min similarity to fit the projected memory into the budget
+	//!
+	//! @param budget  - memory budget of the graph construction and clustering, bytes
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @param minsim  - min similarity of the linked instances to be raised
+	//! @param rdsmarg  - minimal number of the node links to apply the links cutting
+	//! @return  - the min similarity >= minsim or NaN if the budget can't be met
+	public float minSimilarity(long budget, float lnscut, float minsim, int rdsmarg) {
+		if(memory(lnscut, minsim, rdsmarg) <= budget)
+			return minsim;
+		final float[]  sims = similarities();
+		// Binary search of the min sampled similarity that fits the budget
+		int  beg = lowerBound(sims, minsim);
+		int  end = sims.length;
+		while(beg < end) {
+			final int  mid = (beg + end) >>> 1;
+			if(memory(lnscut, sims[mid], rdsmarg) <= budget)
+				end = mid;
+			else beg = mid + 1;
+		}
+		if(beg < sims.length)
+			return sims[beg];
+		// Omit all sampled links
+		final float  maxsim = sims.length != 0 ? Math.nextUp(sims[sims.length - 1]) : minsim;
+		return memory(lnscut, maxsim, rdsmarg) <= budget ? maxsim : Float.NaN;
+	}
+}
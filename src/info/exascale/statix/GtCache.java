@@ -0,0 +1,298 @@
+package info.exascale.statix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import info.exascale.statix.SimilarityMatix.InstPropsStat;
+import info.exascale.statix.SimilarityMatix.TypePropOcr;
+import info.exascale.statix.SimilarityMatix.TypeStat;
+
+
+//! Persistent cache of the ground-truth dataset compacted for the property weights evaluation
+//!
+//! The weights of the input properties are evaluated from the co-occurrences of the properties with
+//! the types and the statistics of the types (TypeStat) over the GT instances having the input properties,
+//! so the statistics depend on the input properties. The cache retains only the typed GT instances having
+//! properties as the ids of their properties and ordered types, so the statistics for any input properties
+//! are aggregated in a single pass over the ids without the GT re-parsing.
+//! The cache is validated by the size, modification time and the sampled content hash of the GT file.
+class GtCache {
+	private static final int  magic = 0x43475453;  // "STGC" in the little endian
+	private static final int  hashBlock = 1 << 16;  // Size of the hashed block of the GT file, bytes
+	private static final int  hashBlocks = 16;  // Max number of the hashed blocks evenly spread over the GT file
+
+	private final long  gtSize;  // Size of the GT file, bytes
+	private final long  gtTime;  // Modification time of the GT file, ms
+	private final long  gtHash;  // Hash of the sampled blocks of the GT file
+	private final boolean  dirty;  // The duplicated triples are eliminated
+	private final UriDictionary  propsNames;  // Properties of the typed instances
+	private final UriDictionary  typesNames;  // Types, the ids are ordered by the type names
+	private final int[]  propsBegs;  // Begins of the property instances in propsInsts, propsNum + 1
+	private final int[]  propsInsts;  // Instances of the properties, ordered, duplicated in the non-dirty mode
+	private final int[]  typesBegs;  // Begins of the instance types in typesIds, instsNum + 1
+	private final int[]  typesIds;  // Types of the instances, ordered, duplicated in the non-dirty mode
+
+
+	private GtCache(long gtSize, long gtTime, long gtHash, boolean dirty, UriDictionary propsNames, UriDictionary typesNames
+	, int[] propsBegs, int[] propsInsts, int[] typesBegs, int[] typesIds) {
+		this.gtSize = gtSize;
+		this.gtTime = gtTime;
+		this.gtHash = gtHash;
+		this.dirty = dirty;
+		this.propsNames = propsNames;
+		this.typesNames = typesNames;
+		this.propsBegs = propsBegs;
+		this.propsInsts = propsInsts;
+		this.typesBegs = typesBegs;
+		this.typesIds = typesIds;
+	}
+
+	//! Load the valid cache of the GT dataset or form it parsing the GT dataset
+	//!
+	//! @param n3DataSet  - RDF dataset in N3/quad format containing the type information
+	//! @param cacheFName  - the cache file, (re)written if it is absent or outdated
+	//! @param dirty  - the input data is dirty and might contain duplicated triples that should be eliminated
+	//! @return  - the cache
+	static GtCache open(String n3DataSet, String cacheFName, boolean dirty) throws IOException {
+		final Path  gt = Paths.get(n3DataSet);
+		final Path  cachef = Paths.get(cacheFName);
+		final long  gtSize = Files.size(gt);
+		final long  gtTime = Files.getLastModifiedTime(gt).toMillis();
+		final long  gtHash = fingerprint(gt, gtSize);
+		try(DataInputStream  inp = new DataInputStream(new BufferedInputStream(Files.newInputStream(cachef)))) {
+			if(inp.readInt() != magic)
+				throw new IOException("The GT cache is not valid: " + cacheFName);
+			if(inp.readLong() == gtSize && inp.readLong() == gtTime && inp.readLong() == gtHash && inp.readBoolean() == dirty) {
+				final GtCache  cache = load(inp, gtSize, gtTime, gtHash, dirty);
+				System.out.println("The GT cache is loaded from " + cacheFName + ": " + cache.propsNames.size()
+					+ " properties, " + cache.typesNames.size() + " types, " + (cache.typesBegs.length - 1) + " typed instances");
+				return cache;
+			}
+			System.out.println("The GT cache is outdated, reforming it: " + cacheFName);
+		} catch(NoSuchFileException err) {
+			System.out.println("The GT cache is absent, forming it: " + cacheFName);
+		}
+		final GtCache  cache = build(n3DataSet, gtSize, gtTime, gtHash, dirty);
+		final Path  tmp = Paths.get(cacheFName + ".tmp");
+		cache.save(tmp);
+		SimilarityMatix.replaceFile(tmp, cachef);
+		System.out.println("The GT cache is saved to " + cacheFName + ": " + cache.propsNames.size()
+			+ " properties, " + cache.typesNames.size() + " types, " + (cache.typesBegs.length - 1) + " typed instances");
+		return cache;
+	}
+
+	//! Hash of the sampled blocks of the file
+	//!
+	//! Only the evenly spread blocks are hashed to validate the huge files in milliseconds,
+	//! the size and modification time are validated besides the hash.
+	//! @param file  - the file to be hashed
+	//! @param size  - size of the file
+	//! @return  - the hash
+	private static long fingerprint(Path file, long size) throws IOException {
+		final CRC32  crc = new CRC32();
+		final ByteBuffer  buf = ByteBuffer.allocate(hashBlock);
+		try(FileChannel  chan = FileChannel.open(file)) {
+			final int  nblocks = (int)Math.min(hashBlocks, (size + hashBlock - 1) / hashBlock);
+			for(int ib = 0; ib < nblocks; ++ib) {
+				long  pos = nblocks >= 2 ? (size - hashBlock) * ib / (nblocks - 1) : 0;
+				buf.clear();
+				for(int n; buf.hasRemaining() && (n = chan.read(buf, pos)) > 0; pos += n);
+				buf.flip();
+				crc.update(buf);
+			}
+		}
+		return crc.getValue();
+	}
+
+	//! Form the cache parsing the GT dataset
+	private static GtCache build(String n3DataSet, long gtSize, long gtTime, long gtHash, boolean dirty) throws IOException {
+		final HashMap<String, InstPropsStat>  instPStats = SimilarityMatix.loadInstanceProperties(n3DataSet, null, dirty);
+		// Order the types by their names
+		final ArrayList<String>  types = new ArrayList<String>();
+		final HashMap<String, Integer>  typesIdx = new HashMap<String, Integer>();
+		int  instsNum = 0;
+		long  ntypes = 0;
+		for(InstPropsStat propstat: instPStats.values()) {
+			if(propstat.properties == null || propstat.types == null)
+				continue;
+			++instsNum;
+			ntypes += propstat.types.size();
+			for(String tname: propstat.types)
+				if(typesIdx.putIfAbsent(tname, 0) == null)
+					types.add(tname);
+		}
+		if(ntypes > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("The number of the instance types exceeds the max size: " + ntypes);
+		types.sort(null);
+		final UriDictionary  typesNames = new UriDictionary(types.size());
+		for(String tname: types)
+			typesIdx.put(tname, typesNames.add(tname));
+		types.clear();
+
+		// Types of the instances and the occurrences of the properties
+		final UriDictionary  propsNames = new UriDictionary();
+		final int[]  typesBegs = new int[instsNum + 1];
+		final int[]  typesIds = new int[(int)ntypes];
+		int[]  propsBegs = new int[64];  // Occurrences of the properties, then the begins
+		int  iinst = 0;
+		for(InstPropsStat propstat: instPStats.values()) {
+			if(propstat.properties == null || propstat.types == null)
+				continue;
+			int  pos = typesBegs[iinst];
+			// Note: the instance types are ordered by the names, so are their ids
+			for(String tname: propstat.types)
+				typesIds[pos++] = typesIdx.get(tname);
+			typesBegs[++iinst] = pos;
+			for(String prop: propstat.properties) {
+				final int  pid = propsNames.add(prop);
+				if(pid + 1 >= propsBegs.length)
+					propsBegs = Arrays.copyOf(propsBegs, propsBegs.length * 2);
+				++propsBegs[pid + 1];
+			}
+		}
+		final int  propsNum = propsNames.size();
+		propsBegs = Arrays.copyOf(propsBegs, propsNum + 1);
+		long  nocrs = 0;
+		for(int i = 1; i <= propsNum; ++i) {
+			nocrs += propsBegs[i];
+			if(nocrs > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("The number of the property occurrences exceeds the max size: " + nocrs);
+			propsBegs[i] = (int)nocrs;
+		}
+		// Instances of the properties, ordered by the instance index
+		final int[]  propsInsts = new int[(int)nocrs];
+		final int[]  fill = Arrays.copyOf(propsBegs, propsNum);
+		iinst = 0;
+		for(InstPropsStat propstat: instPStats.values()) {
+			if(propstat.properties == null || propstat.types == null)
+				continue;
+			for(String prop: propstat.properties)
+				propsInsts[fill[propsNames.id(prop)]++] = iinst;
+			++iinst;
+		}
+		return new GtCache(gtSize, gtTime, gtHash, dirty, propsNames, typesNames, propsBegs, propsInsts, typesBegs, typesIds);
+	}
+
+	//! Save the cache
+	private void save(Path file) throws IOException {
+		try(DataOutputStream  out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(magic);
+			out.writeLong(gtSize);
+			out.writeLong(gtTime);
+			out.writeLong(gtHash);
+			out.writeBoolean(dirty);
+			propsNames.save(out);
+			typesNames.save(out);
+			writeInts(out, propsBegs);
+			writeInts(out, propsInsts);
+			writeInts(out, typesBegs);
+			writeInts(out, typesIds);
+		}
+	}
+
+	//! Load the cache body following the validated header
+	private static GtCache load(DataInputStream inp, long gtSize, long gtTime, long gtHash, boolean dirty) throws IOException {
+		final UriDictionary  propsNames = UriDictionary.load(inp);
+		final UriDictionary  typesNames = UriDictionary.load(inp);
+		final int[]  propsBegs = readInts(inp);
+		final int[]  propsInsts = readInts(inp);
+		final int[]  typesBegs = readInts(inp);
+		final int[]  typesIds = readInts(inp);
+		if(propsBegs.length != propsNames.size() + 1 || propsBegs[propsBegs.length - 1] != propsInsts.length
+		|| typesBegs.length == 0 || typesBegs[typesBegs.length - 1] != typesIds.length)
+			throw new IOException("The GT cache is inconsistent");
+		return new GtCache(gtSize, gtTime, gtHash, dirty, propsNames, typesNames, propsBegs, propsInsts, typesBegs, typesIds);
+	}
+
+	//! Write the array prefixed by its size
+	private static void writeInts(DataOutputStream out, int[] vals) throws IOException {
+		out.writeInt(vals.length);
+		for(int val: vals)
+			out.writeInt(val);
+	}
+
+	//! Read the array formed by writeInts()
+	private static int[] readInts(DataInputStream inp) throws IOException {
+		final int  size = inp.readInt();
+		if(size < 0)
+			throw new IOException("The GT cache is corrupted, array size: " + size);
+		final int[]  vals = new int[size];
+		for(int i = 0; i < size; ++i)
+			vals[i] = inp.readInt();
+		return vals;
+	}
+
+	//! Aggregate the statistics of the GT instances having the input properties
+	//!
+	//! The statistics are the same as formed from the GT dataset loaded for the input properties.
+	//! @param propsocrs  - properties and their occurrences from the input dataset, whose weight should be evalauted
+	//! @param propsTypes  - resulting types with the occurrences of each input property ordered by the type name,
+	//! 	null for the properties absent in the GT
+	//! @param typesStats  - resulting statistics of the types
+	//! @return  - the number of the GT instances having the input properties
+	int aggregate(HashMap<String, Integer> propsocrs, HashMap<String, ArrayList<TypePropOcr>> propsTypes
+	, HashMap<String, TypeStat> typesStats) {
+		final int  instsNum = typesBegs.length - 1;
+		final int  typesNum = typesNames.size();
+		final int[]  iprops = new int[instsNum];  // Occurrences of the input properties in the instances
+		final int[]  counts = new int[typesNum];  // Occurrences of the property in the types
+		final int[]  touched = new int[typesNum];  // Types having the property
+		for(String prop: propsocrs.keySet()) {
+			final int  pid = propsNames.id(prop);
+			if(pid == -1) {
+				propsTypes.put(prop, null);
+				continue;
+			}
+			int  ntouched = 0;
+			for(int k = propsBegs[pid]; k < propsBegs[pid + 1]; ++k) {
+				final int  iinst = propsInsts[k];
+				++iprops[iinst];
+				for(int it = typesBegs[iinst]; it < typesBegs[iinst + 1]; ++it)
+					if(counts[typesIds[it]]++ == 0)
+						touched[ntouched++] = typesIds[it];
+			}
+			// Note: the type ids are ordered by the type names
+			Arrays.sort(touched, 0, ntouched);
+			final ArrayList<TypePropOcr>  ptocrs = new ArrayList<TypePropOcr>(ntouched);
+			for(int i = 0; i < ntouched; ++i) {
+				final TypePropOcr  ptocr = new TypePropOcr(typesNames.term(touched[i]));
+				ptocr.propocr = counts[touched[i]];
+				counts[touched[i]] = 0;
+				ptocrs.add(ptocr);
+			}
+			propsTypes.put(prop, ptocrs);
+		}
+
+		int  ninsts = 0;
+		final TypeStat[]  tstats = new TypeStat[typesNum];
+		for(int iinst = 0; iinst < instsNum; ++iinst) {
+			if(iprops[iinst] == 0)
+				continue;
+			++ninsts;
+			for(int it = typesBegs[iinst]; it < typesBegs[iinst + 1]; ++it) {
+				TypeStat  tstat = tstats[typesIds[it]];
+				if(tstat == null) {
+					tstat = new TypeStat();
+					tstats[typesIds[it]] = tstat;
+					typesStats.put(typesNames.term(typesIds[it]), tstat);
+				}
+				tstat.ocrprops += iprops[iinst];
+				++tstat.numinsts;
+			}
+		}
+		return ninsts;
+	}
+}
@@ -0,0 +1,110 @@
+package info.exascale.statix;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+//! Writer of the instance id to name mapping (<id>\t<name>\n lines) on the background thread
+//!
+//! The names are supplied in order of the instance ids during the input parsing and are formatted
+//! to the bytes by the dedicated thread. The writer is not used in the filtering mode, where the typed
+//! flags of the instances are known only after the parsing and the unpadded ids can not be patched
+//! in place, so the id map is written once from the names dictionary after the parsing.
+//! @note The writer is not thread-safe, the names should be supplied by a single thread
+class IdMapWriter implements AutoCloseable {
+	private static final int  batchSize = 1 << 12;  // The number of names passed to the writer thread at once
+	private static final int  batchesMax = 64;  // Max number of the pending batches
+	private static final String[]  eof = new String[0];  // Marker of the completed input
+
+	private final ArrayBlockingQueue<String[]>  batches = new ArrayBlockingQueue<String[]>(batchesMax);
+	private final Thread  writer;
+	private volatile IOException  failure = null;  // Failure of the writer thread
+	private String[]  batch = new String[batchSize];  // Names of the consecutive ids, null terminated
+	private int  nbatch = 0;  // The number of names in the batch
+	private boolean  closed = false;
+
+
+	//! Open the id map file and start the writer thread
+	//!
+	//! @param fname  - the id map file to be (re)written
+	IdMapWriter(String fname) throws IOException {
+		// Note: the file is opened by the calling thread to fail early
+		final BytesWriter  idmapf = new BytesWriter(fname);
+		writer = new Thread(() -> write(idmapf), "idmap-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	//! Format the supplied names to the file
+	private void write(BytesWriter idmapf) {
+		long  id = 0;
+		try {
+			for(String[] names; (names = batches.take()) != eof;) {
+				// Drain the remained batches on failure to not block the supplier
+				if(failure != null)
+					continue;
+				try {
+					for(String name: names) {
+						if(name == null)
+							break;
+						idmapf.writeNumber(id);
+						idmapf.writeChar('\t');
+						idmapf.writeString(name);
+						idmapf.writeChar('\n');
+						++id;
+					}
+				} catch(IOException err) {
+					failure = err;
+				}
+			}
+		} catch(InterruptedException err) {
+			failure = new IOException("The id map writing is interrupted", err);
+		} finally {
+			try {
+				idmapf.close();
+			} catch(IOException err) {
+				if(failure == null)
+					failure = err;
+			}
+		}
+	}
+
+	//! Supply the name of the next instance id
+	//!
+	//! @param name  - the instance (subject) name
+	public void add(String name) throws IOException {
+		batch[nbatch++] = name;
+		if(nbatch == batchSize)
+			submit();
+	}
+
+	//! Pass the batch to the writer thread
+	private void submit() throws IOException {
+		if(failure != null)
+			throw failure;
+		try {
+			batches.put(batch);
+		} catch(InterruptedException err) {
+			throw new IOException("The id map writing is interrupted", err);
+		}
+		batch = new String[batchSize];
+		nbatch = 0;
+	}
+
+	//! Complete the writing waiting for the writer thread
+	public void close() throws IOException {
+		if(closed)
+			return;
+		closed = true;
+		if(nbatch != 0)
+			submit();
+		try {
+			batches.put(eof);
+			writer.join();
+		} catch(InterruptedException err) {
+			throw new IOException("The id map writing is interrupted", err);
+		}
+		if(failure != null)
+			throw failure;
+	}
+}
@@ -0,0 +1,30 @@
+package info.exascale.statix;
+
+import java.util.Arrays;
+
+
+//! Growable list of the primitive ids
+class IdsList {
+	public int[]  ids;
+	public int  size = 0;
+
+	IdsList() {
+		ids = new int[4];
+	}
+
+	void add(int id) {
+		if(size == ids.length)
+			ids = Arrays.copyOf(ids, size + (size >> 1));
+		ids[size++] = id;
+	}
+
+	//! Sort the ids and remove duplicates
+	void sortUnique() {
+		Arrays.sort(ids, 0, size);
+		int  n = size != 0 ? 1 : 0;
+		for(int i = 1; i < size; ++i)
+			if(ids[i] != ids[n - 1])
+				ids[n++] = ids[i];
+		size = n;
+	}
+}
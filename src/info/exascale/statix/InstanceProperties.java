@@ -0,0 +1,53 @@
+package info.exascale.statix;
+
+import java.util.Arrays;
+
+
+//! Property ids of the instance accumulated on the input loading
+class InstanceProperties {
+	public boolean isTyped = false;  //!< The instance is typped
+	
+	// Note: the properties will be empty if the instance has only the #type properties, but this is a very rare usecase.
+	// The property ids are appended on loading and become ordered and unique only after the seal() call.
+	public int[] properties = empty;  //!< Property ids
+	public int propsNum = 0;  //!< The number of properties
+
+	private static final int[]  empty = new int[0];
+	
+	 
+	public InstanceProperties(int property) {
+		add(property);
+	}
+	
+	public InstanceProperties() {}
+	
+	//! Release the properties (after their transfer to the store)
+	public void release() {
+		properties = empty;
+		propsNum = 0;
+	}
+	
+	//! Add the property id
+	public void add(int property) {
+		if(propsNum == properties.length)
+			properties = Arrays.copyOf(properties, propsNum < 4 ? 4 : propsNum + (propsNum >> 1));
+		properties[propsNum++] = property;
+	}
+	
+	//! Order the properties and omit the duplicates, which is required for the similarity evaluation
+	//!
+	//! @param trim  - trim the properties storage to the actual size
+	public void seal(boolean trim) {
+		if(propsNum >= 2) {
+			Arrays.sort(properties, 0, propsNum);
+			// Omit duplicates in-place
+			int iu = 0;  // Index of the last unique item
+			for(int i = 1; i < propsNum; ++i)
+				if(properties[i] != properties[iu])
+					properties[++iu] = properties[i];
+			propsNum = iu + 1;
+		}
+		if(trim && propsNum != properties.length)
+			properties = propsNum != 0 ? Arrays.copyOf(properties, propsNum) : empty;
+	}
+}
@@ -0,0 +1,133 @@
+package info.exascale.statix;
+
+
+//! Accumulation of the weights of the properties shared by two instances
+//!
+//! The kernel evaluates the intersection of the ordered unique property ids of the instances
+//! in the properties store, which is the hottest part of the pairwise similarity evaluation.
+//! The weights are accumulated in order of the property ids, so all kernels yield the same value.
+public interface IntersectionKernel {
+	//! Accumulate weights of the common properties of the instances
+	//!
+	//! @param props  - properties store
+	//! @param iinst1  - index of the first instance
+	//! @param iinst2  - index of the second instance
+	//! @param weights  - property weights by the property id
+	//! @param squared  - accumulate squared weights (for the Cosine similarity)
+	//! @return  - accumulated weight of the common properties
+	double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared);
+
+	//! Accumulate weights of the common properties of the instances unless the required weight is unreachable
+	//!
+	//! The accumulation can be interrupted as soon as the accumulated weight with the remained
+	//! (not traversed) weight of any instance is below the required weight.
+	//! @param props  - properties store
+	//! @param iinst1  - index of the first instance
+	//! @param iinst2  - index of the second instance
+	//! @param weights  - property weights by the property id
+	//! @param squared  - accumulate squared weights (for the Cosine similarity)
+	//! @param required  - min required accumulated weight
+	//! @param mass1  - accumulated weight of all properties of the first instance
+	//! @param mass2  - accumulated weight of all properties of the second instance
+	//! @return  - accumulated weight of the common properties, -1 if the accumulation is interrupted
+	default double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared
+	, double required, double mass1, double mass2) {
+		return common(props, iinst1, iinst2, weights, squared);
+	}
+
+	//! Kernel name
+	String name();
+
+	public static final String  kernelAuto = "auto";  // Vectorized kernel if available, otherwise scalar
+	public static final String  kernelScalar = "scalar";
+	public static final String  kernelVector = "vector";  // Vectorized kernel, fails if not available
+	public static final String  kernelVerify = "verify";  // Both kernels are evaluated and compared
+	// Vectorized kernel implementation, requires the jdk.incubator.vector module
+	public static final String  vectorClass = "info.exascale.statix.simd.VectorIntersection";
+
+	//! Create the kernel
+	//!
+	//! @param type  - kernel type: auto, scalar, vector or verify
+	//! @return  - the kernel
+	public static IntersectionKernel create(String type) {
+		switch(type) {
+		case kernelScalar:
+			return new ScalarIntersection();
+		case kernelAuto:
+			try {
+				return vectorized();
+			} catch(IllegalStateException err) {
+				System.err.println("WARNING, the scalar similarity kernel is used: " + err.getMessage());
+				return new ScalarIntersection();
+			}
+		case kernelVector:
+			return vectorized();
+		case kernelVerify:
+			return new VerifiedIntersection(vectorized(), new ScalarIntersection());
+		default:
+			throw new IllegalArgumentException("Unknown similarity kernel: " + type);
+		}
+	}
+
+	//! Load the vectorized kernel
+	//!
+	//! @return  - the vectorized kernel
+	//! @throws IllegalStateException  - the vectorized kernel is not available in this runtime
+	static IntersectionKernel vectorized() {
+		try {
+			return (IntersectionKernel)Class.forName(vectorClass).getDeclaredConstructor().newInstance();
+		} catch(ReflectiveOperationException | LinkageError | UnsupportedOperationException err) {
+			throw new IllegalStateException("the vectorized kernel is not available (requires Java 16+ with"
+				+ " --add-modules jdk.incubator.vector): " + err, err);
+		}
+	}
+}
+
+
+//! Evaluation of both kernels validating their results
+class VerifiedIntersection implements IntersectionKernel {
+	private static final double  eps = 1e-6;  // Relative tolerance of the results
+
+	private final IntersectionKernel  kernel;
+	private final IntersectionKernel  reference;
+
+	VerifiedIntersection(IntersectionKernel kernel, IntersectionKernel reference) {
+		this.kernel = kernel;
+		this.reference = reference;
+	}
+
+	public double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared) {
+		final double  res = kernel.common(props, iinst1, iinst2, weights, squared);
+		final double  ref = reference.common(props, iinst1, iinst2, weights, squared);
+		if(Math.abs(res - ref) > eps * Math.max(1, Math.abs(ref)))
+			throw new IllegalStateException("The " + kernel.name() + " kernel yields " + res + " instead of "
+				+ ref + " for the instances #" + iinst1 + " and #" + iinst2);
+		return res;
+	}
+
+	public double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared
+	, double required, double mass1, double mass2) {
+		final double  res = kernel.common(props, iinst1, iinst2, weights, squared, required, mass1, mass2);
+		final double  bref = reference.common(props, iinst1, iinst2, weights, squared, required, mass1, mass2);
+		// Each bounded result is either exact or interrupted only on the unreachable required weight
+		final double  ref = reference.common(props, iinst1, iinst2, weights, squared);
+		validate(kernel, res, ref, required, iinst1, iinst2);
+		validate(reference, bref, ref, required, iinst1, iinst2);
+		return res;
+	}
+
+	//! Validate the bounded accumulation by the exact accumulated weight
+	//!
+	//! @param kern  - the evaluated kernel
+	//! @param res  - the bounded result of the kernel, -1 if the accumulation is interrupted
+	//! @param ref  - the exact accumulated weight
+	//! @param required  - min required accumulated weight
+	private static void validate(IntersectionKernel kern, double res, double ref, double required, int iinst1, int iinst2) {
+		final double  tol = eps * Math.max(1, Math.abs(ref));
+		if(res == -1 ? ref >= required + tol : Math.abs(res - ref) > tol)
+			throw new IllegalStateException("The bounded " + kern.name() + " kernel yields " + res + " instead of "
+				+ ref + " for the required " + required + " of the instances #" + iinst1 + " and #" + iinst2);
+	}
+
+	public String name()  { return kernel.name() + "+" + kernelVerify; }
+}
@@ -0,0 +1,98 @@
+package info.exascale.statix;
+
+import java.util.Arrays;
+
+
+//! Inverted index of the instances properties
+//!
+//! The instances having each property are ordered by the instance index and packed in the CSR
+//! layout by the property id. The instances without any properties are listed separately.
+public class PropertiesIndex {
+	private final int[]  begs;  // Begins of the property instances, properties number + 1
+	private final int[]  insts;  // Instance indices by the properties
+	private final int[]  empty;  // Ordered indices of the instances without any properties
+
+
+	//! Build the index
+	//!
+	//! @param props  - properties store of the instances
+	//! @param propsNum  - the number of properties, exceeds the max property id
+	public PropertiesIndex(PropertiesStore props, int propsNum) {
+		begs = new int[propsNum + 1];
+		for(int k = 0; k < props.entries(); ++k)
+			++begs[props.property(k) + 1];
+		for(int i = 0; i < propsNum; ++i)
+			begs[i + 1] += begs[i];
+		insts = new int[props.entries()];
+		final int[]  pos = Arrays.copyOf(begs, propsNum);
+		int  nempty = 0;
+		for(int i = 0; i < props.size(); ++i) {
+			if(props.count(i) == 0)
+				++nempty;
+			for(int k = props.begin(i), end = props.end(i); k < end; ++k)
+				insts[pos[props.property(k)]++] = i;
+		}
+		empty = new int[nempty];
+		nempty = 0;
+		for(int i = 0; i < props.size() && nempty < empty.length; ++i)
+			if(props.count(i) == 0)
+				empty[nempty++] = i;
+	}
+
+	//! The number of properties
+	public int size()  { return begs.length - 1; }
+
+	//! Begin of the instances having the property
+	public int begin(int prop)  { return begs[prop]; }
+
+	//! End of the instances having the property
+	public int end(int prop)  { return begs[prop + 1]; }
+
+	//! Instance index at the specified position
+	public int instance(int pos)  { return insts[pos]; }
+
+	//! Position of the instance among the instances having the property
+	//!
+	//! @param prop  - property id
+	//! @param iinst  - instance index
+	//! @return  - the position or (-insertion point - 1) if the instance does not have the property
+	public int find(int prop, int iinst)  { return Arrays.binarySearch(insts, begs[prop], begs[prop + 1], iinst); }
+
+	//! Candidate instances of the similarity to the instance
+	//!
+	//! The candidates share any property with the instance, or are the instances without any properties
+	//! if the instance does not have them.
+	//! @param props  - properties store of the instances the index is built from
+	//! @param iinst  - instance index
+	//! @param succeeding  - only the succeeding instances (having the larger indices) are the candidates
+	//! @param stamp  - scratch marks of the candidates by the instance index, the candidates
+	//! 	are marked by iinst + 1, so the same scratch can be reused for various instances
+	//! @param cands  - resulting candidates, sized for all instances
+	//! @return  - the number of the candidates, which are unordered
+	public int candidates(PropertiesStore props, int iinst, boolean succeeding, int[] stamp, int[] cands) {
+		int  ncands = 0;
+		if(props.count(iinst) == 0) {
+			for(int j = succeeding ? Arrays.binarySearch(empty, iinst) + 1 : 0; j < empty.length; ++j)
+				if(empty[j] != iinst)
+					cands[ncands++] = empty[j];
+			return ncands;
+		}
+		stamp[iinst] = iinst + 1;
+		for(int k = props.begin(iinst), end = props.end(iinst); k < end; ++k) {
+			final int  prop = props.property(k);
+			// Skip the preceding instances if required
+			for(int ip = succeeding ? find(prop, iinst) + 1 : begs[prop], pend = begs[prop + 1]; ip < pend; ++ip) {
+				final int  j = insts[ip];
+				if(stamp[j] != iinst + 1) {
+					stamp[j] = iinst + 1;
+					cands[ncands++] = j;
+				}
+			}
+		}
+		return ncands;
+	}
+
+	//! Ordered indices of the instances without any properties
+	//! @note The returned array should not be modified
+	public int[] empty()  { return empty; }
+}
@@ -0,0 +1,270 @@
+package info.exascale.statix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+
+//! Off-heap storage of the instances property vectors in the CSR layout
+//!
+//! The store is a single direct or memory mapped buffer consisting of the header, offsets
+//! of the instances vectors (instances + 1) and the flat region of the ordered property ids.
+//! The vectors are not traced by the GC during the pairwise similarity evaluation and
+//! the store can be mapped from the snapshot file without any parsing.
+//! The dense instances additionally have the bitset of their properties, which spans the range
+//! of their property ids and is formed on the store construction (it is not persisted).
+public class PropertiesStore {
+	private static final int  magic = 0x50585453;  // "STXP" in the little endian
+	private static final int  version = 1;
+	private static final int  hdrInts = 4;  // Header: magic, version, instances, entries
+	public static final int  denseMin = 16;  // Min number of properties of the dense instance
+
+	private final ByteBuffer  buffer;  // Whole store
+	private final IntBuffer  offsets;  // Offsets of the instances vectors in the ids
+	private final IntBuffer  ids;  // Property ids of all instances
+	private final ByteBuffer  idsBytes;  // Byte view of the ids
+	// Bitsets of the dense instances: offset of the bitset words (-1 for the sparse instances)
+	// and the base word index (the min property id / 64) by the instance index
+	private IntBuffer  bitsIndex = null;
+	private LongBuffer  bitsWords = null;  // Bitsets words of all dense instances
+	private int  denseNum = 0;  // The number of dense instances
+	private final int  size;  // The number of instances
+
+
+	private PropertiesStore(ByteBuffer buffer) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if(buffer.capacity() < hdrInts * 4 || buffer.getInt(0) != magic || buffer.getInt(4) != version)
+			throw new IllegalArgumentException("The buffer does not contain the properties store of the supported version");
+		size = buffer.getInt(8);
+		final int  entries = buffer.getInt(12);
+		if((hdrInts + size + 1L + entries) * 4 != buffer.capacity())
+			throw new IllegalArgumentException("The properties store is corrupted, instances: " + size
+				+ ", entries: " + entries + ", bytes: " + buffer.capacity());
+		this.buffer = buffer;
+		offsets = region(buffer, hdrInts, size + 1);
+		idsBytes = bytesRegion(buffer, hdrInts + size + 1, entries);
+		ids = idsBytes.asIntBuffer();
+		formBitsets();
+	}
+
+	//! Form the bitsets of the dense instances
+	//!
+	//! The instance is dense when its bitset is not larger than the half of its ids, i.e. the
+	//! number of bitset words * 2 <= the number of properties.
+	private void formBitsets() {
+		long  words = 0;
+		for(int i = 0; i < size; ++i)
+			if(denseWords(i) != 0) {
+				words += denseWords(i);
+				++denseNum;
+			}
+		if(denseNum == 0)
+			return;
+		if(words > Integer.MAX_VALUE / 8 || size > Integer.MAX_VALUE / 8)
+			throw new IllegalStateException("The bitsets of the dense instances exceed the max size: " + words);
+		bitsIndex = ByteBuffer.allocateDirect(size * 2 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+		bitsWords = ByteBuffer.allocateDirect((int)words * 8).order(ByteOrder.nativeOrder()).asLongBuffer();
+		int  off = 0;
+		for(int i = 0; i < size; ++i) {
+			final int  nwords = denseWords(i);
+			if(nwords == 0) {
+				bitsIndex.put(i * 2, -1);
+				continue;
+			}
+			final int  base = ids.get(begin(i)) >>> 6;
+			bitsIndex.put(i * 2, off);
+			bitsIndex.put(i * 2 + 1, base);
+			for(int k = begin(i), end = end(i); k < end; ++k) {
+				final int  prop = ids.get(k);
+				final int  iw = off + (prop >>> 6) - base;
+				bitsWords.put(iw, bitsWords.get(iw) | 1L << prop);
+			}
+			off += nwords;
+		}
+	}
+
+	//! The number of bitset words of the instance if it is dense
+	//!
+	//! @param iinst  - instance index
+	//! @return  - the number of words or 0 if the instance is sparse
+	private int denseWords(int iinst) {
+		final int  num = count(iinst);
+		if(num < denseMin)
+			return 0;
+		final int  nwords = (ids.get(end(iinst) - 1) >>> 6) - (ids.get(begin(iinst)) >>> 6) + 1;
+		return nwords * 2 <= num ? nwords : 0;
+	}
+
+	//! Int view of the buffer region
+	//!
+	//! @param buffer  - the buffer
+	//! @param off  - offset of the region in ints
+	//! @param len  - length of the region in ints
+	private static IntBuffer region(ByteBuffer buffer, int off, int len) {
+		return bytesRegion(buffer, off, len).asIntBuffer();
+	}
+
+	//! Byte view of the buffer region
+	//!
+	//! @param buffer  - the buffer
+	//! @param off  - offset of the region in ints
+	//! @param len  - length of the region in ints
+	private static ByteBuffer bytesRegion(ByteBuffer buffer, int off, int len) {
+		ByteBuffer  reg = buffer.duplicate();
+		reg.position(off * 4);
+		reg.limit((off + len) * 4);
+		// Note: the order is not inherited by the slice
+		return reg.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	//! Build the store from the sealed instances properties
+	//!
+	//! @param insts  - instances properties by the instance index, the per-instance properties
+	//! 	are released on the store construction
+	//! @return  - the store
+	public static PropertiesStore build(List<InstanceProperties> insts) {
+		long  entries = 0;
+		for(InstanceProperties inst: insts)
+			entries += inst.propsNum;
+		final long  bytes = (hdrInts + insts.size() + 1L + entries) * 4;
+		if(bytes > Integer.MAX_VALUE)
+			throw new IllegalStateException("The properties store exceeds the max size: " + entries
+				+ " properties of " + insts.size() + " instances");
+		ByteBuffer  buffer = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(magic).putInt(version).putInt(insts.size()).putInt((int)entries);
+		int  off = 0;
+		for(InstanceProperties inst: insts) {
+			buffer.putInt(off);
+			off += inst.propsNum;
+		}
+		buffer.putInt(off);
+		for(InstanceProperties inst: insts) {
+			for(int i = 0; i < inst.propsNum; ++i)
+				buffer.putInt(inst.properties[i]);
+			inst.release();
+		}
+		buffer.clear();
+		return new PropertiesStore(buffer);
+	}
+
+	//! Build the updated store
+	//!
+	//! @param size  - the number of instances in the updated store, not less than the current one
+	//! @param vectors  - updated (including new) sealed instances properties by the instance index
+	//! @return  - the updated store, the vectors of the remained instances are copied from this store
+	public PropertiesStore update(int size, Map<Integer, InstanceProperties> vectors) {
+		if(size < this.size)
+			throw new IllegalArgumentException("The instances can't be removed from the store: "
+				+ size + " < " + this.size);
+		long  entries = ids.capacity();
+		for(Map.Entry<Integer, InstanceProperties> vec: vectors.entrySet())
+			entries += vec.getValue().propsNum - (vec.getKey() < this.size ? count(vec.getKey()) : 0);
+		final long  bytes = (hdrInts + size + 1L + entries) * 4;
+		if(bytes > Integer.MAX_VALUE)
+			throw new IllegalStateException("The properties store exceeds the max size: " + entries
+				+ " properties of " + size + " instances");
+		ByteBuffer  buffer = ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(magic).putInt(version).putInt(size).putInt((int)entries);
+		IntBuffer  offs = region(buffer, hdrInts, size + 1);
+		IntBuffer  dest = region(buffer, hdrInts + size + 1, (int)entries);
+		IntBuffer  src = ids.duplicate();
+		for(int i = 0; i < size; ++i) {
+			offs.put(dest.position());
+			final InstanceProperties  vec = vectors.get(i);
+			if(vec != null) {
+				dest.put(vec.properties, 0, vec.propsNum);
+				continue;
+			}
+			if(i >= this.size)
+				continue;
+			// Copy the remained vector
+			src.limit(end(i));
+			src.position(begin(i));
+			dest.put(src);
+		}
+		offs.put(dest.position());
+		buffer.clear();
+		return new PropertiesStore(buffer);
+	}
+
+	//! Map the store from the snapshot file
+	//!
+	//! @param snapshot  - the snapshot file formed by save()
+	//! @return  - the store
+	public static PropertiesStore map(Path snapshot) throws IOException {
+		try(FileChannel  chan = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+			if(chan.size() > Integer.MAX_VALUE)
+				throw new IOException("The properties store snapshot is too large: " + snapshot);
+			return new PropertiesStore(chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size()));
+		}
+	}
+
+	//! Save the store snapshot to the file
+	//!
+	//! @param snapshot  - the snapshot file to be (re)written
+	public void save(Path snapshot) throws IOException {
+		try(FileChannel  chan = FileChannel.open(snapshot, StandardOpenOption.CREATE
+		, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer  buf = buffer.duplicate();
+			buf.clear();
+			while(buf.hasRemaining())
+				chan.write(buf);
+		}
+	}
+
+	//! The number of instances
+	public int size()  { return size; }
+
+	//! The number of properties of all instances
+	public int entries()  { return ids.capacity(); }
+
+	//! The size of the store in bytes
+	public int bytes()  { return buffer.capacity(); }
+
+	//! Begin of the instance properties
+	public int begin(int iinst)  { return offsets.get(iinst); }
+
+	//! End of the instance properties
+	public int end(int iinst)  { return offsets.get(iinst + 1); }
+
+	//! The number of the instance properties
+	public int count(int iinst)  { return offsets.get(iinst + 1) - offsets.get(iinst); }
+
+	//! Property id at the specified position
+	public int property(int pos)  { return ids.get(pos); }
+
+	//! The number of dense instances (having the bitsets)
+	public int denseNum()  { return denseNum; }
+
+	//! Whether the instance is dense and has the bitset of the properties
+	public boolean dense(int iinst)  { return bitsIndex != null && bitsIndex.get(iinst * 2) != -1; }
+
+	//! Base word index of the dense instance bitset (the word of its min property id)
+	public int bitsBase(int iinst)  { return bitsIndex.get(iinst * 2 + 1); }
+
+	//! The number of words in the dense instance bitset
+	public int bitsNum(int iinst)  { return (ids.get(end(iinst) - 1) >>> 6) - bitsIndex.get(iinst * 2 + 1) + 1; }
+
+	//! Word of the dense instance bitset
+	//!
+	//! @param iinst  - the dense instance index
+	//! @param iword  - word index relative to the base one
+	public long bitsWord(int iinst, int iword)  { return bitsWords.get(bitsIndex.get(iinst * 2) + iword); }
+
+	//! Whether the dense instance has the property
+	public boolean hasBit(int iinst, int prop) {
+		final int  iword = (prop >>> 6) - bitsIndex.get(iinst * 2 + 1);
+		return iword >= 0 && iword < bitsNum(iinst) && (bitsWord(iinst, iword) & 1L << prop) != 0;
+	}
+
+	//! Little endian byte view of the property ids for the bulk (vectorized) access
+	//! @note The view is shared, so only the absolute read operations are allowed
+	public ByteBuffer propertiesBytes()  { return idsBytes; }
+}
@@ -0,0 +1,188 @@
+package info.exascale.statix;
+
+
+//! Scalar intersection of the instances properties dispatched by their representation
+//!
+//! Both dense instances are intersected by the AND of their bitset words, the instances having
+//! skewed sizes by galloping of the small one in the large one, the dense instance with the sparse
+//! one by probing the bitset with the sparse ids and the sparse instances by the merge.
+//! The merge of the sparse instances is interrupted early if the required weight is unreachable.
+public class ScalarIntersection implements IntersectionKernel {
+	public static final int  gallopRatio = 32;  // Min ratio of the sizes of the sparse instances to gallop
+
+	public double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared) {
+		final int  num1 = props.count(iinst1);
+		final int  num2 = props.count(iinst2);
+		if(num1 == 0 || num2 == 0)
+			return 0;
+		final boolean  dense1 = props.dense(iinst1);
+		final boolean  dense2 = props.dense(iinst2);
+		if(dense1 && dense2)
+			return commonBits(props, iinst1, iinst2, weights, squared);
+		if(num1 >= (long)num2 * gallopRatio)
+			return gallop(props, iinst2, iinst1, weights, squared);
+		if(num2 >= (long)num1 * gallopRatio)
+			return gallop(props, iinst1, iinst2, weights, squared);
+		if(dense1 || dense2)
+			return dense1 ? probe(props, iinst1, iinst2, weights, squared)
+				: probe(props, iinst2, iinst1, weights, squared);
+		return merge(props, iinst1, iinst2, weights, squared);
+	}
+
+	public double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared
+	, double required, double mass1, double mass2) {
+		final int  num1 = props.count(iinst1);
+		final int  num2 = props.count(iinst2);
+		// Note: the bitsets and galloping are cheap enough to be evaluated without the bounding
+		if(num1 == 0 || num2 == 0 || props.dense(iinst1) || props.dense(iinst2)
+		|| num1 >= (long)num2 * gallopRatio || num2 >= (long)num1 * gallopRatio)
+			return common(props, iinst1, iinst2, weights, squared);
+		return mergeBounded(props, iinst1, iinst2, weights, squared, required, mass1, mass2);
+	}
+
+	public String name()  { return kernelScalar; }
+
+	//! Weight of the property
+	protected static double weight(float[] weights, int prop, boolean squared) {
+		final double  weight = weights[prop];
+		return squared ? weight * weight : weight;
+	}
+
+	//! Merge of the ordered property ids
+	protected double merge(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared) {
+		return merge(props, props.begin(iinst1), props.end(iinst1), props.begin(iinst2), props.end(iinst2)
+			, weights, squared, 0);
+	}
+
+	//! Merge of the ordered property ids in the specified ranges
+	//!
+	//! @param common  - the accumulated weight of the preceding common properties
+	//! @return  - the accumulated weight including the common properties of the ranges
+	protected static double merge(PropertiesStore props, int i1, int end1, int i2, int end2, float[] weights
+	, boolean squared, double common) {
+		if(i1 == end1 || i2 == end2)
+			return common;
+		int  prop1 = props.property(i1);
+		int  prop2 = props.property(i2);
+		while(true) {
+			if(prop1 < prop2) {
+				if(++i1 == end1)
+					break;
+				prop1 = props.property(i1);
+			} else if(prop2 < prop1) {
+				if(++i2 == end2)
+					break;
+				prop2 = props.property(i2);
+			} else {
+				common += weight(weights, prop1, squared);
+				if(++i1 == end1 || ++i2 == end2)
+					break;
+				prop1 = props.property(i1);
+				prop2 = props.property(i2);
+			}
+		}
+		return common;
+	}
+
+	//! Merge of the ordered property ids interrupted when the required weight is unreachable
+	//!
+	//! @param required  - min required accumulated weight
+	//! @param rest1  - accumulated weight of all properties of the first instance
+	//! @param rest2  - accumulated weight of all properties of the second instance
+	//! @return  - the accumulated weight, -1 if the merge is interrupted
+	protected static double mergeBounded(PropertiesStore props, int iinst1, int iinst2, float[] weights
+	, boolean squared, double required, double rest1, double rest2) {
+		int  i1 = props.begin(iinst1);
+		int  i2 = props.begin(iinst2);
+		final int  end1 = props.end(iinst1);
+		final int  end2 = props.end(iinst2);
+		int  prop1 = props.property(i1);
+		int  prop2 = props.property(i2);
+		// Note: the common weight is accumulated in the same order as by the merge
+		double  common = 0;
+		while(true) {
+			if(prop1 < prop2) {
+				rest1 -= weight(weights, prop1, squared);
+				if(common + rest1 < required)
+					return -1;
+				if(++i1 == end1)
+					break;
+				prop1 = props.property(i1);
+			} else if(prop2 < prop1) {
+				rest2 -= weight(weights, prop2, squared);
+				if(common + rest2 < required)
+					return -1;
+				if(++i2 == end2)
+					break;
+				prop2 = props.property(i2);
+			} else {
+				final double  weight = weight(weights, prop1, squared);
+				common += weight;
+				rest1 -= weight;
+				rest2 -= weight;
+				if(++i1 == end1 || ++i2 == end2)
+					break;
+				prop1 = props.property(i1);
+				prop2 = props.property(i2);
+			}
+		}
+		return common;
+	}
+
+	//! Galloping (exponential) search of the properties of the small instance in the large one
+	protected static double gallop(PropertiesStore props, int ismall, int ilarge, float[] weights, boolean squared) {
+		final int  end = props.end(ilarge);
+		int  lo = props.begin(ilarge);  // The first not processed property of the large instance
+		double  common = 0;
+		for(int k = props.begin(ismall), ends = props.end(ismall); k < ends && lo < end; ++k) {
+			final int  prop = props.property(k);
+			// Find the range containing the first property >= prop
+			int  step = 1;
+			int  hi = lo;
+			while(hi < end && props.property(hi) < prop) {
+				lo = hi + 1;
+				hi += step;
+				step <<= 1;
+			}
+			if(hi > end)
+				hi = end;
+			// Binary search of the first property >= prop in [lo, hi]
+			while(lo < hi) {
+				final int  mid = (lo + hi) >>> 1;
+				if(props.property(mid) < prop)
+					lo = mid + 1;
+				else hi = mid;
+			}
+			if(lo < end && props.property(lo) == prop) {
+				common += weight(weights, prop, squared);
+				++lo;
+			}
+		}
+		return common;
+	}
+
+	//! Probing of the dense instance bitset with the properties of another instance
+	protected static double probe(PropertiesStore props, int idense, int iinst, float[] weights, boolean squared) {
+		double  common = 0;
+		for(int k = props.begin(iinst), end = props.end(iinst); k < end; ++k) {
+			final int  prop = props.property(k);
+			if(props.hasBit(idense, prop))
+				common += weight(weights, prop, squared);
+		}
+		return common;
+	}
+
+	//! AND of the bitsets of the dense instances
+	protected static double commonBits(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared) {
+		final int  base1 = props.bitsBase(iinst1);
+		final int  base2 = props.bitsBase(iinst2);
+		final int  base = Math.max(base1, base2);
+		final int  end = Math.min(base1 + props.bitsNum(iinst1), base2 + props.bitsNum(iinst2));
+		double  common = 0;
+		for(int iw = base; iw < end; ++iw)
+			for(long bits = props.bitsWord(iinst1, iw - base1) & props.bitsWord(iinst2, iw - base2)
+			; bits != 0; bits &= bits - 1)
+				common += weight(weights, iw << 6 | Long.numberOfTrailingZeros(bits), squared);
+		return common;
+	}
+}
@@ -0,0 +1,167 @@
+package info.exascale.statix;
+
+
+//! Similarity function of the instances represented by their weighted properties
+//!
+//! The similarity is combined from the accumulated contributions of the common properties and the
+//! masses (accumulated contributions of all properties) of both instances. The contribution of the
+//! property is either its weight or the squared weight, which are accumulated by IntersectionKernel.
+//! The properties are binary (present or not) and the property weights are inverse to the property
+//! occurrences, so the Cosine of the weighted properties is the TF-IDF Cosine similarity.
+public interface SimilarityKernel {
+	//! Whether the contribution of the property is its squared weight instead of the weight
+	boolean squared();
+
+	//! Contribution of the property
+	//!
+	//! @param weight  - property weight
+	//! @return  - the contribution to the masses and common weight
+	default double contribution(double weight)  { return squared() ? weight * weight : weight; }
+
+	//! Combine the similarity
+	//!
+	//! @param common  - accumulated contributions of the common properties, non-negative
+	//! @param mass1  - accumulated contributions of the first instance properties, positive
+	//! @param mass2  - accumulated contributions of the second instance properties, positive
+	//! @return  - the similarity
+	double combine(double common, double mass1, double mass2);
+
+	//! Min accumulated contributions of the common properties to reach the similarity
+	//!
+	//! @param similarity  - the similarity to be reached
+	//! @param mass1  - accumulated contributions of the first instance properties
+	//! @param mass2  - accumulated contributions of the second instance properties
+	//! @return  - the min common contributions, meaningful only if the pruning is supported
+	double required(double similarity, double mass1, double mass2);
+
+	//! Whether the similarity of the instances without any common properties is zero,
+	//! so the candidate pairs can be identified by the inverted index of the properties
+	boolean supportsIndex();
+
+	//! Whether the similarity is monotone by the common weight and normalized by the masses,
+	//! so the evaluation can be pruned by the upper bound of the common weight
+	boolean supportsPruning();
+
+	//! Kernel name
+	String name();
+
+	public static final String  similarityCosine = "cosine";  // Weighted Cosine similarity
+	public static final String  similarityJaccard = "jaccard";  // Weighted Jaccard similarity
+	public static final String  similarityOverlap = "overlap";  // Weighted overlap coefficient
+	public static final String  similarityDot = "dot";  // Thresholded dot product of the weighted properties
+
+	//! Create the kernel
+	//!
+	//! @param type  - kernel type: cosine, jaccard, overlap or dot[:<threshold>], where the dot product
+	//! 	below the threshold (0 by default) is omitted
+	//! @return  - the kernel
+	public static SimilarityKernel create(String type) {
+		final int  idel = type.indexOf(':');
+		if(idel != -1 && !type.startsWith(similarityDot + ":"))
+			throw new IllegalArgumentException("The similarity kernel does not have any parameters: " + type);
+		switch(idel != -1 ? type.substring(0, idel) : type) {
+		case similarityCosine:
+			return new CosineSimilarity();
+		case similarityJaccard:
+			return new JaccardSimilarity();
+		case similarityOverlap:
+			return new OverlapSimilarity();
+		case similarityDot:
+			final float  threshold = idel != -1 ? Float.parseFloat(type.substring(idel + 1)) : 0;
+			if(!(threshold >= 0))
+				throw new IllegalArgumentException("The dot product threshold should be non-negative: " + type);
+			return new DotSimilarity(threshold);
+		default:
+			throw new IllegalArgumentException("Unknown similarity kernel: " + type);
+		}
+	}
+}
+
+
+//! Weighted Cosine similarity: common / (sqrt(mass1) * sqrt(mass2)) of the squared weights
+class CosineSimilarity implements SimilarityKernel {
+	public boolean squared()  { return true; }
+
+	public double combine(double common, double mass1, double mass2) {
+		return common / (Math.sqrt(mass1) * Math.sqrt(mass2));
+	}
+
+	public double required(double similarity, double mass1, double mass2) {
+		return similarity * (Math.sqrt(mass1) * Math.sqrt(mass2));
+	}
+
+	public boolean supportsIndex()  { return true; }
+
+	public boolean supportsPruning()  { return true; }
+
+	public String name()  { return similarityCosine; }
+}
+
+
+//! Weighted Jaccard similarity: common / (mass1 + mass2) of the weights
+class JaccardSimilarity implements SimilarityKernel {
+	public boolean squared()  { return false; }
+
+	public double combine(double common, double mass1, double mass2) {
+		return common / (mass1 + mass2);
+	}
+
+	public double required(double similarity, double mass1, double mass2) {
+		return similarity * (mass1 + mass2);
+	}
+
+	public boolean supportsIndex()  { return true; }
+
+	public boolean supportsPruning()  { return true; }
+
+	public String name()  { return similarityJaccard; }
+}
+
+
+//! Weighted overlap coefficient: common / min(mass1, mass2) of the weights
+//! @note The cheapest normalized similarity, which is 1 for the instances whose properties are
+//! 	the subset of another instance properties
+class OverlapSimilarity implements SimilarityKernel {
+	public boolean squared()  { return false; }
+
+	public double combine(double common, double mass1, double mass2) {
+		return common / Math.min(mass1, mass2);
+	}
+
+	public double required(double similarity, double mass1, double mass2) {
+		return similarity * Math.min(mass1, mass2);
+	}
+
+	public boolean supportsIndex()  { return true; }
+
+	public boolean supportsPruning()  { return true; }
+
+	public String name()  { return similarityOverlap; }
+}
+
+
+//! Dot product of the weighted properties omitted below the threshold
+//! @note The similarity is not normalized, so it can exceed 1 and can't be pruned by the masses
+class DotSimilarity implements SimilarityKernel {
+	private final float  threshold;  // Min retained dot product
+
+	DotSimilarity(float threshold) {
+		this.threshold = threshold;
+	}
+
+	public boolean squared()  { return true; }
+
+	public double combine(double common, double mass1, double mass2) {
+		return common >= threshold ? common : 0;
+	}
+
+	public double required(double similarity, double mass1, double mass2) {
+		return Math.max(similarity, threshold);
+	}
+
+	public boolean supportsIndex()  { return true; }
+
+	public boolean supportsPruning()  { return false; }
+
+	public String name()  { return threshold != 0 ? similarityDot + ":" + threshold : similarityDot; }
+}
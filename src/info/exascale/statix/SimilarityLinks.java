@@ -0,0 +1,253 @@
+package info.exascale.statix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+
+//! Symmetric similarity links of the instances (weighted adjacency lists)
+//!
+//! The links are kept for both directions and ordered by the destination instance index,
+//! which allows to update only the links of the affected instances and to form the input
+//! graph for the clustering without the similarity reevaluation.
+public class SimilarityLinks {
+	private static final int  magic = 0x4C585453;  // "STXL" in the little endian
+	private static final int[]  noids = new int[0];
+	private static final float[]  noweights = new float[0];
+
+	private final String  simkern;  // Name of the similarity kernel
+	private int[][]  ids;  // Destination instance indices of the links by the source instance index
+	private float[][]  weights;  // Weights of the links by the source instance index
+	private int[]  sizes;  // The number of links by the source instance index
+	private int  size = 0;  // The number of instances
+
+
+	private SimilarityLinks(int size, String simkern) {
+		this.simkern = simkern;
+		this.size = size;
+		ids = new int[size][];
+		weights = new float[size][];
+		sizes = new int[size];
+		Arrays.fill(ids, noids);
+		Arrays.fill(weights, noweights);
+	}
+
+	//! Evaluate the links between all instances
+	//!
+	//! @param csmat  - similarity matrix (loaded instances)
+	//! @param simkern  - similarity kernel
+	//! @return  - the links
+	public static SimilarityLinks evaluate(SimilarityMatix csmat, SimilarityKernel simkern) {
+		// Note: the pairs are evaluated once in parallel by the inverted index of the properties
+		final SparseSimilarity  sims = SparseSimilarity.evaluate(csmat, simkern, 0);
+		final int  instsNum = sims.size();
+		SimilarityLinks  links = new SimilarityLinks(instsNum, simkern.name());
+		for(int i = 0; i < instsNum; ++i) {
+			links.sizes[i] += sims.end(i) - sims.begin(i);
+			for(int k = sims.begin(i), end = sims.end(i); k < end; ++k)
+				++links.sizes[sims.col(k)];
+		}
+		for(int i = 0; i < instsNum; ++i) {
+			if(links.sizes[i] != 0) {
+				links.ids[i] = new int[links.sizes[i]];
+				links.weights[i] = new float[links.sizes[i]];
+			}
+			links.sizes[i] = 0;
+		}
+		// Note: the back links are added on the traversing of the preceding instances,
+		// so the links of each instance are ordered
+		for(int i = 0; i < instsNum; ++i)
+			for(int k = sims.begin(i), end = sims.end(i); k < end; ++k) {
+				links.append(i, sims.col(k), sims.weight(k));
+				links.append(sims.col(k), i, sims.weight(k));
+			}
+		return links;
+	}
+
+	//! Reevaluate the links of the affected instances
+	//!
+	//! Only the affected rows are reevaluated against the candidates sharing their properties, and only the
+	//! remained instances linked to the affected ones before or after the reevaluation are updated.
+	//! @param csmat  - similarity matrix (updated instances)
+	//! @param simkern  - similarity kernel, which should be the same as the links were evaluated with
+	//! @param affected  - indices of the affected (updated or new) instances
+	public void update(SimilarityMatix csmat, SimilarityKernel simkern, BitSet affected) {
+		if(!simkern.name().equals(this.simkern))
+			throw new IllegalArgumentException("The similarity kernel should be the same as of the links: " + this.simkern);
+		final int  instsNum = csmat.instancesNum();
+		if(instsNum < size)
+			throw new IllegalArgumentException("The instances can't be removed from the links: "
+				+ instsNum + " < " + size);
+		if(instsNum > size) {
+			ids = Arrays.copyOf(ids, instsNum);
+			weights = Arrays.copyOf(weights, instsNum);
+			sizes = Arrays.copyOf(sizes, instsNum);
+			Arrays.fill(ids, size, instsNum, noids);
+			Arrays.fill(weights, size, instsNum, noweights);
+			size = instsNum;
+		}
+		// The remained instances linked to the affected ones
+		final BitSet  touched = new BitSet(size);
+		for(int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1))
+			for(int k = 0; k < sizes[i]; ++k)
+				touched.set(ids[i][k]);
+
+		// Reevaluate links of the affected instances in parallel
+		final PropertiesStore  props = csmat.properties();
+		// Resolve the weights and instances masses before the concurrent evaluation
+		csmat.prepare(simkern);
+		final PropertiesIndex  index = simkern.supportsIndex() ? new PropertiesIndex(props, csmat.propertiesNum()) : null;
+		// Scratch buffers of the workers: stamps of the candidates marked by the instance index + 1 and the candidates
+		final ConcurrentLinkedQueue<int[][]>  scratches = new ConcurrentLinkedQueue<int[][]>();
+		final int[]  rows = affected.stream().toArray();
+		IntStream.range(0, rows.length).parallel().forEach(r -> {
+			final int  i = rows[r];
+			int[][]  scratch = scratches.poll();
+			if(scratch == null)
+				scratch = new int[][] {new int[instsNum], new int[instsNum]};
+			final int[]  cands = scratch[1];
+			int  ncands = 0;
+			if(index == null) {
+				for(int j = 0; j < instsNum; ++j)
+					if(j != i)
+						cands[ncands++] = j;
+			} else {
+				ncands = index.candidates(props, i, false, scratch[0], cands);
+				Arrays.sort(cands, 0, ncands);
+			}
+			final int[]  rids = new int[ncands];
+			final float[]  rweights = new float[ncands];
+			int  n = 0;
+			for(int k = 0; k < ncands; ++k) {
+				final float  weight = (float)csmat.similarity(i, cands[k], simkern);
+				if(weight == 0)
+					continue;
+				rids[n] = cands[k];
+				rweights[n++] = weight;
+			}
+			// Note: each affected instance is updated by a single worker
+			ids[i] = n != 0 ? Arrays.copyOf(rids, n) : noids;
+			weights[i] = n != 0 ? Arrays.copyOf(rweights, n) : noweights;
+			sizes[i] = n;
+			scratches.offer(scratch);
+		});
+
+		// Collect the back links of the remained instances to the affected ones,
+		// which are ordered since the affected instances are traversed in order
+		SimilarityLinks  back = new SimilarityLinks(size, this.simkern);
+		for(int i = affected.nextSetBit(0); i >= 0; i = affected.nextSetBit(i + 1))
+			for(int k = 0; k < sizes[i]; ++k)
+				if(!affected.get(ids[i][k])) {
+					back.append(ids[i][k], i, weights[i][k]);
+					touched.set(ids[i][k]);
+				}
+		// Update links of the touched remained instances: omit the former links to the affected
+		// instances and merge the back links
+		for(int i = touched.nextSetBit(0); i >= 0; i = touched.nextSetBit(i + 1)) {
+			if(affected.get(i))
+				continue;
+			final int[]  rids = ids[i];
+			final float[]  rweights = weights[i];
+			final int  rsize = sizes[i];
+			final int  bsize = back.sizes[i];
+			int[]  uids = new int[rsize + bsize];
+			float[]  uweights = new float[rsize + bsize];
+			int  n = 0;
+			for(int k = 0, kb = 0; k < rsize || kb < bsize;) {
+				if(kb == bsize || (k < rsize && rids[k] < back.ids[i][kb])) {
+					if(!affected.get(rids[k])) {
+						uids[n] = rids[k];
+						uweights[n++] = rweights[k];
+					}
+					++k;
+				} else {
+					uids[n] = back.ids[i][kb];
+					uweights[n++] = back.weights[i][kb++];
+				}
+			}
+			ids[i] = n != uids.length ? Arrays.copyOf(uids, n) : uids;
+			weights[i] = n != uweights.length ? Arrays.copyOf(uweights, n) : uweights;
+			sizes[i] = n;
+		}
+	}
+
+	//! Append the link
+	private void append(int src, int dst, float weight) {
+		final int  n = sizes[src];
+		if(n == ids[src].length) {
+			final int  capacity = n < 4 ? 4 : n + (n >> 1);
+			ids[src] = Arrays.copyOf(ids[src], capacity);
+			weights[src] = Arrays.copyOf(weights[src], capacity);
+		}
+		ids[src][n] = dst;
+		weights[src][n] = weight;
+		sizes[src] = n + 1;
+	}
+
+	//! Name of the similarity kernel the links are evaluated with
+	public String kernel()  { return simkern; }
+
+	//! The number of instances
+	public int size()  { return size; }
+
+	//! The number of links of the instance
+	public int degree(int iinst)  { return sizes[iinst]; }
+
+	//! Destination instance index of the link
+	public int id(int iinst, int ilink)  { return ids[iinst][ilink]; }
+
+	//! Weight of the link
+	public float weight(int iinst, int ilink)  { return weights[iinst][ilink]; }
+
+	//! Save the links
+	//!
+	//! @param file  - the output file
+	public void save(Path file) throws IOException {
+		try(DataOutputStream  out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(magic);
+			out.writeUTF(simkern);
+			out.writeInt(size);
+			for(int i = 0; i < size; ++i) {
+				out.writeInt(sizes[i]);
+				for(int k = 0; k < sizes[i]; ++k) {
+					out.writeInt(ids[i][k]);
+					out.writeFloat(weights[i][k]);
+				}
+			}
+		}
+	}
+
+	//! Load the links
+	//!
+	//! @param file  - the links file formed by save()
+	//! @return  - the links
+	public static SimilarityLinks load(Path file) throws IOException {
+		try(DataInputStream  inp = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if(inp.readInt() != magic)
+				throw new IOException("The file does not contain the similarity links: " + file);
+			final String  simkern = inp.readUTF();
+			SimilarityLinks  links = new SimilarityLinks(inp.readInt(), simkern);
+			for(int i = 0; i < links.size; ++i) {
+				final int  n = inp.readInt();
+				if(n == 0)
+					continue;
+				links.ids[i] = new int[n];
+				links.weights[i] = new float[n];
+				for(int k = 0; k < n; ++k) {
+					links.ids[i][k] = inp.readInt();
+					links.weights[i][k] = inp.readFloat();
+				}
+				links.sizes[i] = n;
+			}
+			return links;
+		}
+	}
+}
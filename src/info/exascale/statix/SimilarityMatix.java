@@ -1,14 +1,21 @@
 package info.exascale.statix;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.UncheckedIOException;
+import java.io.OutputStream;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.nio.file.Paths;
+import java.nio.file.Path;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 
 
 class ValWrapper<Val> {
@@ -20,49 +27,36 @@ class ValWrapper<Val> {
 }
 
 
-class InstanceProperties {
-	public int id;  //!< Instance (subject) id
-	public boolean isTyped = false;  //!< The instance is typped
-	
-	// Note: the set will be empty if the instance has only the #type properties, but this is a very rare usecase
-	public TreeSet<String> properties = new TreeSet<String>();
-	
-	 
-	public InstanceProperties(int id, String property) {
-		if(property == null || property.isEmpty())
-			throw new IllegalArgumentException("The property is empty for id: " + id);
-		
-		this.id = id;
-		properties.add(property);
-	}
-	
-	public InstanceProperties(int id) {
-		this.id=id;
-	}
-}
-
-
-class IdTyped {
-	public int  id;
-	public boolean  typed;
-	
-	IdTyped(int id, boolean typed) {
-		this.id = id;
-		this.typed = typed;
-	}
-
-	IdTyped(int id) {
-		this.id = id;
-		this.typed = false;
-	}
-}
-
-
 public class SimilarityMatix {
 	public static final String  typeProperty = "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type>";
+	public static final int  extrChunk = 1 << 16;  // The number of lines parsed in parallel on the ground-truth extraction
+	public static final String  stateDataset = "dataset.sts";  // Dataset state file (names, properties statistics and weights)
+	public static final String  stateVectors = "vectors.psx";  // Property vectors state file (snapshot of the store)
+	public static final double  pruningSlack = 1e-9;  // Relative slack of the required common weight on the similarity pruning
+	private static final int  stateMagic = 0x53585453;  // "STXS" in the little endian
+	private static final int[]  internedEof = new int[0];  // Marker of the completed interning of the input triples
 	public HashMap<String, Float>  propsWeights = null;  // Used in similarity evaluation
-	private HashMap<String, InstanceProperties>  instsProps = null;  // Instance Properties statistics, required to build the input graph for the clustering
+	private UriDictionary  instsNames = null;  // Instances (subjects) names, the instance index is its id in the dictionary
+	private PropertiesStore  instsProps = null;  // Instance Properties by the instance index, required to build the input graph for the clustering
+	private BitSet  instsTyped = null;  // Typed instances (having the #type property) by the instance index
+	// Types (#type objects) of the instances captured on the input dataset loading for the automatic hints
+	private UriDictionary  typesNames = null;  // Types names, the type id is its id in the dictionary
+	private int[]  typesBegs = null;  // Offsets of the instances types in the typesIds by the instance index, size + 1
+	private int[]  typesIds = null;  // Type ids of the instances in order of the loading
+	private boolean  filteringOn = false;  // Non-typed instances are filtered out from the output by the high bit in their ids
+	private UriDictionary  propsNames = null;  // Properties names, the property id is its id in the dictionary
 	private int  propsocrs = 0;  // Total number of occurrences of all properties in the input datasets (the number of triples)
+	private int[]  propsOccurs = null;  // Occurrences of the properties by the property id
+	private BitSet  propsAuto = null;  // Properties having automatically evaluated weights sqrt(1/ocrs), used in the incremental mode
+	// Property weights by the property id resolved from the propsWeights
+	private float[]  pweights = null;
+	private HashMap<String, Float>  pweightsSrc = null;  // propsWeights used to resolve the pweights
+	// Accumulated (squared for the Cosine similarity) weights of the instances properties by the instance index
+	private double[]  imasses = null;
+	private float[]  imassesWeights = null;  // pweights used to evaluate the imasses
+	private PropertiesStore  imassesProps = null;  // instsProps used to evaluate the imasses
+	private boolean  imassesSquared = false;
+	private IntersectionKernel  kernel = new ScalarIntersection();  // Kernel of the common properties accumulation
 
 
 	public SimilarityMatix()  {}
@@ -73,17 +67,86 @@ public class SimilarityMatix {
 		loadGtData(lblfname, propsocrs, dirty);
 	}
 
-	//! Unique entity instances (subjects)
-	public Set<String> instances()  { return instsProps != null ? instsProps.keySet() : null; }
+	//! The number of unique entity instances (subjects)
+	public int instancesNum()  { return instsProps != null ? instsProps.size() : instsNames != null ? instsNames.size() : 0; }
+	
+	//! Return instance (subject) index by it's name or -1 if the instance does not exist
+	public int instanceIndex(String instance)  { return instsNames.id(instance); }
 	
+	//! Re-entrant lookup of the instance (subject) indices by their names, each concurrent thread should have own lookup
+	public UriDictionary.Lookup instancesLookup()  { return instsNames.lookup(); }
+
 	//! Return instance (subject) id by it's name
-	public int instanceId(String instance)  { return instsProps.get(instance).id; }
+	public int instanceId(String instance)  { return instanceId(instsNames.id(instance)); }
+	
+	//! Return instance (subject) id by it's index
+	//! @note The id has the high bit set if the instance is filtered out
+	public int instanceId(int iinst) {
+		if(iinst < 0 || iinst >= instsProps.size())
+			throw new IndexOutOfBoundsException("The instance index is out of range: " + iinst);
+		return filteringOn && !instsTyped.get(iinst) ? iinst | 1 << 31 : iinst;
+	}
+	
+	//! Return instance (subject) name by it's index
+	public String instanceName(int iinst)  { return instsNames.term(iinst); }
+
+	//! Write instance (subject) name by it's index
+	public void writeInstanceName(int iinst, OutputStream out) throws IOException  { instsNames.write(iinst, out); }
+
+	//! Whether the types of the instances were captured on the loading
+	public boolean typesCaptured()  { return typesBegs != null; }
+
+	//! Begin of the instance types, the types might be duplicated in the dirty input
+	int typesBegin(int iinst)  { return typesBegs[iinst]; }
+
+	//! End of the instance types
+	int typesEnd(int iinst)  { return typesBegs[iinst + 1]; }
+
+	//! Type id at the position
+	int type(int pos)  { return typesIds[pos]; }
+
+	//! Type name by its id
+	String typeName(int type)  { return typesNames.term(type); }
+
+	//! The number of distinct types
+	int typesNum()  { return typesNames != null ? typesNames.size() : 0; }
+
+	//! Properties store of the instances
+	PropertiesStore properties()  { return instsProps; }
+
+	//! Property id by its name or -1 if the property does not exist
+	int propertyId(String property)  { return propsNames.id(property); }
+
+	//! Re-entrant lookup of the property ids by their names, each concurrent thread should have own lookup
+	UriDictionary.Lookup propertiesLookup()  { return propsNames.lookup(); }
+
+	//! Property name by its id
+	String propertyName(int prop)  { return propsNames.term(prop); }
+
+	//! The number of distinct properties
+	int propertiesNum()  { return propsNames != null ? propsNames.size() : 0; }
 	
+	//! Evaluate the sparse similarity matrix of the input dataset with the weights from the labeled dataset
+	//!
+	//! @param inpfname  - input dataset
+	//! @param lblfname  - labeled dataset (ground-truth sample)
+	//! @param idMapFName  - optional file name to output mapping of the instance id to the name (RDF subjects)
+	//! @param dirty  - the labeled data is dirty and might contain duplicated triples that should be eliminated
+	//! @param threshold  - min similarity to be stored
+	//! @return  - upper-triangular sparse matrix of the Cosine similarities
+	public SparseSimilarity cosineSimilarity(String inpfname, String lblfname, String idMapFName, boolean dirty, float threshold) throws IOException {
+		HashMap<String, Integer>  propsocrs = loadInputData(inpfname, false, idMapFName);
+		loadGtData(lblfname, propsocrs, dirty);
+		return sparseMatrix(SimilarityKernel.create(SimilarityKernel.similarityCosine), threshold);
+	}
+
 	// Output id mapping if required (idMapFName != null)
+	//! @deprecated  The dense matrix does not scale, use cosineSimilarity() with the threshold
+	@Deprecated
 	public double[][] cosineSimilarity(String inpfname, String lblfname, String idMapFName, boolean dirty) throws IOException {
 		HashMap<String, Integer>  propsocrs = loadInputData(inpfname, false, idMapFName);
 		loadGtData(lblfname, propsocrs, dirty);
-		return symmetricMatrixProgram(false);
+		return symmetricMatrixProgram(SimilarityKernel.create(SimilarityKernel.similarityCosine));
 	}
 	
 	//! Parse triple in N3/quad format
@@ -129,159 +192,246 @@ public class SimilarityMatix {
 	//! @param tpLblFName  - optional cluster labels file name to be formed (label per line format)
 	//! @param dirty  - the input data is dirty and might contain duplicated triples that should be eliminated
 	public static void extractGT(String n3DataSet, String clsFName, boolean filteringOn, String idMapFName, String tpLblFName, boolean dirty) throws IOException {
-		HashMap<String, IdTyped> instances = new HashMap<String, IdTyped>();
-		HashMap<String, ArrayList<Integer>> typesInstances = new HashMap<String, ArrayList<Integer>>();
-
+		// Note: the subjects are interned to the compact dictionary, the typed ones are marked by the bits
+		final UriDictionary  instances = new UriDictionary();
+		final BitSet  typed = new BitSet();
+		final HashMap<String, IdsList>  typesInstances = new HashMap<String, IdsList>();
+		// The lines are parsed in parallel by chunks and then processed in order to retain the ids
+		final String[]  lines = new String[extrChunk];
+		final String[][]  triples = new String[extrChunk][];
+		// Note: the id map is formed on the background unless the filtering is on, in which case
+		// it is written after the parsing when the typed instances are known
 		try(
-			BufferedReader  bufferedReader = Files.newBufferedReader(Paths.get(n3DataSet)); // new BufferedReader(new FileReader(n3DataSet));
-			BufferedWriter  idmapf = idMapFName != null && !filteringOn ? Files.newBufferedWriter(Paths.get(idMapFName)) : null;  // new BufferedWriter(new FileWriter(idMapFName))
-			BufferedWriter  tplblf = tpLblFName != null ? Files.newBufferedWriter(Paths.get(tpLblFName)) : null;  // new BufferedWriter(new FileWriter(idMapFName))
-			BufferedWriter  clsf = Files.newBufferedWriter(Paths.get(clsFName));
+			IdMapWriter  idmapf = idMapFName != null && !filteringOn ? new IdMapWriter(idMapFName) : null;
+			BufferedReader  bufferedReader = Files.newBufferedReader(Paths.get(n3DataSet));
 		) {
-			String  line = null;
-			while((line = bufferedReader.readLine()) != null) {
-				final String[] s = parseTriple(line);
-				if(s == null)
-					continue;
-				final String inst = s[0];
-				IdTyped  idtp = instances.get(inst);
-				if(idtp == null) {
-					idtp = new IdTyped(instances.size());
-					instances.put(inst, idtp);
+			int  nlines;
+			do {
+				nlines = 0;
+				while(nlines < extrChunk && (lines[nlines] = bufferedReader.readLine()) != null)
+					++nlines;
+				IntStream.range(0, nlines).parallel().forEach(i -> triples[i] = parseTriple(lines[i]));
+				for(int i = 0; i < nlines; ++i) {
+					final String[] s = triples[i];
+					triples[i] = null;
+					lines[i] = null;
+					if(s == null)
+						continue;
+					final int  instsNum = instances.size();
+					final int  id = instances.add(s[0]);
 					// Form id to instance name mapping
-					if(idmapf != null)
-						idmapf.write(idtp.id + "\t" + inst + "\n");
+					if(id == instsNum && idmapf != null)
+						idmapf.add(s[0]);
+					// Check for the type property
+					if(typeProperty.equals(s[1])) {
+						IdsList  iids = typesInstances.get(s[2]);
+						if(iids == null) {
+							iids = new IdsList();
+							typesInstances.put(s[2], iids);
+						}
+						typed.set(id);
+						iids.add(id);
+					}
 				}
+			} while(nlines == extrChunk);
+		}
 
-				// Check for the type property
-				if(typeProperty.equals(s[1])) {
-					final String obj = s[2];
-					ArrayList<Integer> iids = typesInstances.get(obj);
-					if(iids == null) {
-						iids = new ArrayList<Integer>();
-						typesInstances.put(obj, iids);
-					}
-					idtp.typed = true;
-					if(!iids.isEmpty() && dirty) {
-						int pos = Collections.binarySearch(iids, idtp.id);
-						// Omit duplicated types (#type values) in the entities, add only new types
-						if(pos < 0)
-							iids.add(-pos - 1, idtp.id);
-					} else iids.add(idtp.id);
+		try(
+			BytesWriter  tplblf = tpLblFName != null ? new BytesWriter(tpLblFName) : null;
+			BytesWriter  clsf = new BytesWriter(clsFName);
+		) {
+			for(Map.Entry<String, IdsList> tpinsts: typesInstances.entrySet()) {
+				final IdsList  iids = tpinsts.getValue();
+				// Omit duplicated types (#type values) in the entities
+				if(dirty)
+					iids.sortUnique();
+				// Output cluster members as subject ids
+				for(int i = 0; i < iids.size; ++i) {
+					clsf.writeNumber(iids.ids[i]);
+					clsf.writeChar(' ');
 				}
-			}
-			
-			typesInstances.forEach((tplb, iids) -> {
-				try {
-					// Output cluster members as subject ids
-					for(int pid: iids)
-						clsf.write(pid + " ");
-					clsf.write("\n");
-					// Output the cluster (type) label
-					if(tplblf != null) {
-						tplblf.write(tplb);
-						tplblf.write("\n");
-					}
-				} catch(IOException err) {
-					throw new UncheckedIOException(err);
+				clsf.writeChar('\n');
+				// Output the cluster (type) label
+				if(tplblf != null) {
+					tplblf.writeString(tpinsts.getKey());
+					tplblf.writeChar('\n');
 				}
-			});
+			}
 			System.out.println("Ground-truth extracted from " + n3DataSet + " to " + clsFName);
 			if(tpLblFName != null)
 				System.out.println("Clusters labels are formed: " + tpLblFName);
 		}
 		// Output the instance idmap considering the filtering
 		if(filteringOn && idMapFName != null) {
-			try (
-				BufferedWriter  idmapf = Files.newBufferedWriter(Paths.get(idMapFName))  // new BufferedWriter(new FileWriter(idMapFName)))
-			) {
+			try(BytesWriter  idmapf = new BytesWriter(idMapFName)) {
 				// Update ids considering the filtering
 				final int mask = 1 << 31;
-				
-				//for(Map.Entry<K,V> entry: instsProps.entrySet())
-				instances.forEach((name, prop) -> {
-					try {
-						if(!prop.typed)
-							prop.id = prop.id | mask; 
-						idmapf.write(Integer.toUnsignedString(prop.id) + "\t" + name + "\n");
-					} catch(IOException err) {
-						throw new UncheckedIOException(err);
-					}
-				});
+				for(int id = 0; id < instances.size(); ++id)
+					writeIdName(idmapf, typed.get(id) ? id : id | mask, id, instances);
 			}
 		}
 		if(idMapFName != null)
 			System.out.println("Instance id to name (subject) mapping is formed: " + idMapFName);
 	}
 
-	static class PropertyExt {
-		public String  name;
-		public int  ocrs;  // The number of occurrences
-		
-		public PropertyExt(String name) {
-			this.name = name;
-			this.ocrs = 1;
-		}
-	}
-
 	//! Load input dataset
 	//! 
 	//! @param n3DataSet  - file name of the N3/quad RDF dataset to be loaded
 	//! @param filteringOn  - filter out non-typed instances from the output by inverting their ids,
 	//! 	useful for the benchmarking working with ground-truth files
 	//! @param idMapFName  - optional file name to output mapping of the instance id to the name (RDF subjects)
+	//! @param trim  - trim the per-instance properties storage after the loading to reduce the memory consumption
+	//! @param captureTypes  - capture the types of the instances for the subsequent loadGtData() without
+	//! 	the input dataset re-reading
 	//! @return properties  - loaded properties statistics (occurrences)
-	public HashMap<String, Integer> loadInputData(String n3DataSet, boolean filteringOn, String idMapFName) throws IOException {
-		TreeMap<String, InstanceProperties> instProps = new TreeMap<String, InstanceProperties>();
-		TreeMap<String, PropertyExt> props = new TreeMap<String, PropertyExt>();
+	public HashMap<String, Integer> loadInputData(String n3DataSet, boolean filteringOn, String idMapFName, boolean trim, boolean captureTypes) throws IOException {
+		// Note: the resulting structures are filled directly to avoid the peak memory consumption
+		// on the copying. Instances are indexed in the order of their ids (first occurrence in the input).
+		this.instsNames = new UriDictionary();
+		ArrayList<InstanceProperties>  instsProps = new ArrayList<InstanceProperties>();
+		this.propsNames = new UriDictionary();
+		int[]  propsOcrs = new int[64];  // Occurrences of the properties by ids
+		this.propsAuto = null;
+		this.typesNames = captureTypes ? new UriDictionary() : null;
+		this.typesBegs = null;
+		this.typesIds = null;
+		IdsList  instsTypes = captureTypes ? new IdsList() : null;  // Pairs <instance index, type id>
 		int  ocrs = 0;  // Total number of the occurences of all properties
-		
+		// The loading is pipelined: the lines are read and parsed by TriplesReader, the terms are interned by
+		// a single thread in order of the triples retaining the ids and the interned triples are accumulated
+		// by the calling thread. On a single CPU all stages are executed by the calling thread.
+		final ArrayBlockingQueue<int[]>  interned = new ArrayBlockingQueue<int[]>(TriplesReader.backlog);
+		final ValWrapper<Throwable>  failure = new ValWrapper<Throwable>(null);  // Failure of the interning
+		// The properties of the grouped subjects are sealed on completion of their runs until the first
+		// out-of-order subject, after which all instances are sealed on the loading completion
+		boolean  grouped = true;  // The subjects are grouped (each instance forms a single run of triples)
+
+		// Note: the id map is formed on the background unless the filtering is on, in which case
+		// it is written after the loading when the typed instances are known
 		try(
-			BufferedReader  bufferedReader = Files.newBufferedReader(Paths.get(n3DataSet)); // new BufferedReader(new FileReader(n3DataSet));
-			BufferedWriter  idmapf = idMapFName != null && !filteringOn ? Files.newBufferedWriter(Paths.get(idMapFName)) : null;  // new BufferedWriter(new FileWriter(idMapFName))
+			IdMapWriter  idmapf = idMapFName != null && !filteringOn ? new IdMapWriter(idMapFName) : null;
+			TriplesReader  reader = new TriplesReader(n3DataSet);
 		) {
-			String  line = null;
-			while ((line = bufferedReader.readLine()) != null) {
-				final String[] s = parseTriple(line);
-				if(s == null)
-					continue;
-				final String inst = s[0];
-				final int id = instProps.size();
-				final String property = s[1];
-				InstanceProperties instanceProperties = instProps.get(inst);
-
-				if (instanceProperties == null) {
-					instanceProperties = new InstanceProperties(id);
-					// Note: to have the isTyped flag the even empty properties should be added to the map
-					instProps.put(inst, instanceProperties);
-					// Form id to instance name mapping
-					if (idmapf != null)
-						idmapf.write(id + "\t" + inst + "\n");
+			final TriplesInterner  tinterner = new TriplesInterner(idmapf, captureTypes);
+			final Thread  interner = TriplesReader.pipelined ? new Thread(() -> {
+				try {
+					for(String[][] triples; (triples = reader.next()) != null;)
+						interned.put(tinterner.intern(triples));
+				} catch(Throwable err) {
+					failure.val = err;
 				}
-				// Do not add #type property
-				if(typeProperty.equals(property)) {
-					instanceProperties.isTyped = true;
-					continue;
+				try {
+					interned.put(internedEof);
+				} catch(InterruptedException err) {
+					// The loading is cancelled
 				}
-				instanceProperties.properties.add(property);
-				++ocrs;
-				
-				//********************insert to the map Treemap
-				//check if the propertyname was in the map before or not
-				PropertyExt propext = props.get(property);
-				if (propext == null) {
-					propext = new PropertyExt(property);
-					props.put(propext.name, propext);
-				} else ++propext.ocrs;
+			}, "triples-interner") : null;
+			if(interner != null) {
+				interner.setDaemon(true);
+				interner.start();
+			}
+			InstanceProperties  instanceProperties = null;  // Properties of the current instance
+			int  icur = -1;  // Index of the current instance
+			try {
+				for(int[] codes; (codes = interner != null ? interned.take()
+					: tinterner.intern(reader.next())) != internedEof;) {
+					for(int i = 0; i < codes.length; i += 2) {
+						final int  iinst = codes[i];
+						final int  code = codes[i + 1];
+						if(iinst != icur) {
+							if (iinst == instsProps.size()) {
+								// Seal the properties of the completed run
+								if(grouped && instanceProperties != null)
+									instanceProperties.seal(trim);
+								instanceProperties = new InstanceProperties();
+								// Note: to have the isTyped flag the even empty properties should be added to the map
+								instsProps.add(instanceProperties);
+							} else {
+								instanceProperties = instsProps.get(iinst);
+								grouped = false;
+							}
+							icur = iinst;
+						}
+						// Do not add #type property
+						if(code < 0) {
+							instanceProperties.isTyped = true;
+							if(captureTypes) {
+								instsTypes.add(iinst);
+								instsTypes.add(-1 - code);
+							}
+							continue;
+						}
+						instanceProperties.add(code);
+						++ocrs;
+
+						// Update the property occurrences
+						if(code >= propsOcrs.length)
+							propsOcrs = Arrays.copyOf(propsOcrs, Math.max(code + 1, propsOcrs.length * 2));
+						++propsOcrs[code];
+					}
+				}
+				if(interner != null)
+					interner.join();
+			} catch(InterruptedException err) {
+				throw new IOException("The input dataset loading is interrupted", err);
+			} finally {
+				// Cancel the interning on failure, the interner should be completed before the id map closing
+				if(interner != null && interner.isAlive()) {
+					interner.interrupt();
+					interned.clear();
+					try {
+						interner.join();
+					} catch(InterruptedException err) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+			// Note: the interning happens-before the eof marker is taken
+			if(failure.val != null) {
+				if(failure.val instanceof RuntimeException)
+					throw (RuntimeException)failure.val;
+				if(failure.val instanceof IOException)
+					throw (IOException)failure.val;
+				throw new IOException("The input dataset loading failed", failure.val);
 			}
 		}
 		// Save total number of occurrences to the attribute
 		this.propsocrs = ocrs;
+		this.propsOccurs = Arrays.copyOf(propsOcrs, propsNames.size());
 		
-		// Save the resulting instances properties as an attribute
-		this.instsProps = new HashMap<String, InstanceProperties>(instProps.size(), 1);
-		this.instsProps.putAll(instProps);
-		instProps = null;
+		// Group the captured types by the instances
+		if(captureTypes) {
+			final int  instsNum = instsProps.size();
+			typesBegs = new int[instsNum + 1];
+			for(int i = 0; i < instsTypes.size; i += 2)
+				++typesBegs[instsTypes.ids[i] + 1];
+			for(int i = 0; i < instsNum; ++i)
+				typesBegs[i + 1] += typesBegs[i];
+			typesIds = new int[instsTypes.size / 2];
+			final int[]  pos = Arrays.copyOf(typesBegs, instsNum);
+			for(int i = 0; i < instsTypes.size; i += 2)
+				typesIds[pos[instsTypes.ids[i]]++] = instsTypes.ids[i + 1];
+			instsTypes = null;
+		}
+		
+		// Order the instances properties omitting the duplicates (only the last one is unsealed for the grouped subjects)
+		if(!grouped)
+			System.out.println("The input subjects are not grouped, the instances properties are sealed after the loading");
+		this.instsTyped = new BitSet(instsProps.size());
+		for(int i = 0; i < instsProps.size(); ++i) {
+			final InstanceProperties  instps = instsProps.get(i);
+			if(!grouped || i == instsProps.size() - 1)
+				instps.seal(false);
+			if(instps.isTyped)
+				instsTyped.set(i);
+		}
+		if(trim)
+			this.instsNames.trim();
+		// Transfer the instances properties to the off-heap store
+		this.instsProps = PropertiesStore.build(instsProps);
+		instsProps = null;
+		System.out.println("Properties of " + this.instsProps.size() + " instances are stored off-heap: "
+			+ this.instsProps.bytes() + " bytes, dense instances: " + this.instsProps.denseNum());
 		
 		//System.out.println("List Properties for the instance <http://dbpedia.org/resource/BMW_Museum>=  "+instsProps.get("<http://dbpedia.org/resource/BMW_Museum>").properties);
 		//System.out.println("The map with properties and number of accurances in this case for <http://www.w3.org/2002/07/owl#sameAs>= "+map.get("<http://www.w3.org/2002/07/owl#sameAs>").occurrences);
@@ -291,45 +441,269 @@ public class SimilarityMatix {
 		// Set the higest bit in the entities id if the entity does not have any type properties
 		// to filter out such entites from the output because they can't be evalauted
 		// (essential only for the evaluation based on the ground-truth)
-		if(filteringOn) {
-			final int mask = 1 << 31;
-			//System.out.println("mask= "+mask);
-
-			this.instsProps.values().forEach(instps -> {
-				if (!instps.isTyped) {
-					//instProps.id = -((int) instProps.id);  // Note: causes issues if id is not int32_t
-					instps.id = instps.id | mask;
-					// Trace resulting id
-					//System.out.println("value= " + inst);
-					//System.out.println("value= " + instps.id);
-				}
-			});
-			
-			// Output the instance idmap considering the filtering
-			if(idMapFName != null) {
-				try (
-					BufferedWriter  idmapf = Files.newBufferedWriter(Paths.get(idMapFName))  // new BufferedWriter(new FileWriter(idMapFName)))
-				) {
-					this.instsProps.forEach((ipname, ipp) -> {
-						try {
-							idmapf.write(Integer.toUnsignedString(ipp.id) + "\t" + ipname + "\n");
-						} catch(IOException err) {
-							throw new UncheckedIOException(err);
-						}
-					});
-				}
+		this.filteringOn = filteringOn;
+		// Output the instance idmap considering the filtering
+		if(filteringOn && idMapFName != null) {
+			try (
+				BytesWriter  idmapf = new BytesWriter(idMapFName)
+			) {
+				for(int i = 0; i < this.instsProps.size(); ++i)
+					writeIdName(idmapf, instanceId(i), i, instsNames);
 			}
 		}
 		if(idMapFName != null)
 			System.out.println("Instance id to name (subject) mapping is formed: " + idMapFName);
 
-		HashMap<String, Integer> propsocrs = new HashMap<String, Integer>(props.size(), 1);
-		props.forEach((name, propx) -> {
-			propsocrs.put(name, propx.ocrs);
-		});
+		// Form the properties occurrences by names
+		final HashMap<String, Integer>  propsocrs = new HashMap<String, Integer>(propsNames.size(), 1);
+		for(int i = 0; i < propsNames.size(); ++i)
+			propsocrs.put(propsNames.term(i), propsOcrs[i]);
 		return propsocrs;
 	}
 
+	//! Write instance id to name mapping line: <id>\t<name>\n
+	//!
+	//! @param idmapf  - output stream
+	//! @param id  - instance id, which might include the filtering mask
+	//! @param iinst  - instance index in the names dictionary
+	//! @param names  - instances names dictionary
+	private static void writeIdName(BytesWriter idmapf, int id, int iinst, UriDictionary names) throws IOException {
+		idmapf.writeId(id);
+		idmapf.writeChar('\t');
+		names.write(iinst, idmapf);
+		idmapf.writeChar('\n');
+	}
+
+	//! Interner of the input triples terms retaining the ids in order of the triples
+	//!
+	//! The consecutive triples of the same subject (grouped input as produced by most RDF serializers)
+	//! reuse the subject index omitting the dictionary lookup.
+	private final class TriplesInterner {
+		private final IdMapWriter  idmapf;  // Id map writer of the instances, nullable
+		private final boolean  captureTypes;  // Intern the types of the instances
+		private String  subject = null;  // The last interned subject
+		private int  iinst = -1;  // Instance index of the last interned subject
+
+		TriplesInterner(IdMapWriter idmapf, boolean captureTypes) {
+			this.idmapf = idmapf;
+			this.captureTypes = captureTypes;
+		}
+
+		//! Intern the terms of the triples batch
+		//!
+		//! @param triples  - the parsed triples, null if the input is completed
+		//! @return  - pairs <instance index, code>, where the code is the property id or -1 - <type id>
+		//! 	for the #type property, internedEof if the input is completed
+		int[] intern(String[][] triples) throws IOException {
+			if(triples == null)
+				return internedEof;
+			final int[]  codes = new int[triples.length * 2];
+			for(int i = 0; i < triples.length; ++i) {
+				final String[]  s = triples[i];
+				if(!s[0].equals(subject)) {
+					final int  instsNum = instsNames.size();
+					iinst = instsNames.add(s[0]);
+					subject = s[0];
+					// Form id to instance name mapping
+					if(iinst == instsNum && idmapf != null)
+						idmapf.add(s[0]);
+				}
+				codes[i * 2] = iinst;
+				codes[i * 2 + 1] = !typeProperty.equals(s[1]) ? propsNames.add(s[1])
+					: -1 - (captureTypes ? typesNames.add(s[2]) : 0);
+			}
+			return codes;
+		}
+	}
+
+	public HashMap<String, Integer> loadInputData(String n3DataSet, boolean filteringOn, String idMapFName, boolean trim) throws IOException {
+		return loadInputData(n3DataSet, filteringOn, idMapFName, trim, false);
+	}
+
+	public HashMap<String, Integer> loadInputData(String n3DataSet, boolean filteringOn, String idMapFName) throws IOException {
+		return loadInputData(n3DataSet, filteringOn, idMapFName, false);
+	}
+
+	//! Save the instance idmap considering the filtering
+	//!
+	//! @param idMapFName  - file name to output mapping of the instance id to the name (RDF subjects)
+	public void saveIdMap(String idMapFName) throws IOException {
+		try (
+			BytesWriter  idmapf = new BytesWriter(idMapFName)
+		) {
+			for(int i = 0; i < instsProps.size(); ++i)
+				writeIdName(idmapf, instanceId(i), i, instsNames);
+		}
+		System.out.println("Instance id to name (subject) mapping is formed: " + idMapFName);
+	}
+
+	//! Replace the file with the formed temporary one, which is safe for the mapped files
+	//!
+	//! @param tmp  - the formed temporary file
+	//! @param dest  - the destination file
+	static void replaceFile(Path tmp, Path dest) throws IOException {
+		try {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(UnsupportedOperationException err) {
+			Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	//! Save the loaded dataset state (instances, properties statistics and weights, property vectors)
+	//! for the subsequent incremental processing
+	//!
+	//! @param dir  - the state directory
+	public void saveState(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		final float[]  weights = weights();
+		// Identify properties having the automatically evaluated weights on the full loading
+		if(propsAuto == null) {
+			propsAuto = new BitSet(propsNames.size());
+			for(int i = 0; i < propsNames.size(); ++i)
+				if(weights[i] == (float)Math.sqrt(1./propsOccurs[i]))
+					propsAuto.set(i);
+		}
+		Path  tmp = dir.resolve(stateDataset + ".tmp");
+		try(DataOutputStream  out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(stateMagic);
+			instsNames.save(out);
+			propsNames.save(out);
+			out.writeInt(propsocrs);
+			for(int i = 0; i < propsNames.size(); ++i) {
+				out.writeInt(propsOccurs[i]);
+				out.writeFloat(weights[i]);
+			}
+			for(long bits: Arrays.copyOf(propsAuto.toLongArray(), (propsNames.size() + 63) / 64))
+				out.writeLong(bits);
+			for(long bits: Arrays.copyOf(instsTyped.toLongArray(), (instsProps.size() + 63) / 64))
+				out.writeLong(bits);
+		}
+		replaceFile(tmp, dir.resolve(stateDataset));
+		tmp = dir.resolve(stateVectors + ".tmp");
+		instsProps.save(tmp);
+		replaceFile(tmp, dir.resolve(stateVectors));
+	}
+
+	//! Load the dataset state formed by saveState()
+	//!
+	//! @param dir  - the state directory
+	//! @param filteringOn  - filter out non-typed instances from the output by inverting their ids
+	public void loadState(Path dir, boolean filteringOn) throws IOException {
+		try(DataInputStream  inp = new DataInputStream(new BufferedInputStream(Files.newInputStream(dir.resolve(stateDataset))))) {
+			if(inp.readInt() != stateMagic)
+				throw new IOException("The state is not valid: " + dir.resolve(stateDataset));
+			instsNames = UriDictionary.load(inp);
+			propsNames = UriDictionary.load(inp);
+			propsocrs = inp.readInt();
+			final int  propsNum = propsNames.size();
+			propsOccurs = new int[propsNum];
+			pweights = new float[propsNum];
+			propsWeights = new HashMap<String, Float>(propsNum, 1);
+			for(int i = 0; i < propsNum; ++i) {
+				propsOccurs[i] = inp.readInt();
+				pweights[i] = inp.readFloat();
+				propsWeights.put(propsNames.term(i), pweights[i]);
+			}
+			pweightsSrc = propsWeights;
+			long[]  bits = new long[(propsNum + 63) / 64];
+			for(int i = 0; i < bits.length; ++i)
+				bits[i] = inp.readLong();
+			propsAuto = BitSet.valueOf(bits);
+			bits = new long[(instsNames.size() + 63) / 64];
+			for(int i = 0; i < bits.length; ++i)
+				bits[i] = inp.readLong();
+			instsTyped = BitSet.valueOf(bits);
+		}
+		instsProps = PropertiesStore.map(dir.resolve(stateVectors));
+		if(instsProps.size() != instsNames.size())
+			throw new IOException("The state is inconsistent, instances: " + instsNames.size()
+				+ ", vectors: " + instsProps.size());
+		this.filteringOn = filteringOn;
+	}
+
+	//! Apply the delta (appended triples) to the loaded dataset
+	//!
+	//! @param n3Delta  - file name of the N3/quad RDF triples appended to the dataset
+	//! @param weps  - relative tolerance of the automatically evaluated property weights,
+	//! 	the weight is updated only if the relative change of the weight exceeds weps
+	//! @return  - indices of the affected instances, whose similarity should be reevaluated
+	public BitSet applyDelta(String n3Delta, float weps) throws IOException {
+		final int  instsNum = instsProps.size();
+		final int  propsNum = propsNames.size();
+		final float[]  weights = weights();
+		int[]  propsOcrs = Arrays.copyOf(propsOccurs, Math.max(propsNum, 64));
+		HashMap<Integer, InstanceProperties>  vectors = new HashMap<Integer, InstanceProperties>();  // Updated instances
+		int  ocrs = 0;  // The number of the occurrences of the appended properties
+
+		try(BufferedReader  bufferedReader = Files.newBufferedReader(Paths.get(n3Delta))) {
+			String  line = null;
+			while ((line = bufferedReader.readLine()) != null) {
+				final String[] s = parseTriple(line);
+				if(s == null)
+					continue;
+				final int  iinst = instsNames.add(s[0]);
+				InstanceProperties  instanceProperties = vectors.get(iinst);
+				if(instanceProperties == null && (iinst >= instsNum || !typeProperty.equals(s[1]))) {
+					instanceProperties = new InstanceProperties();
+					for(int i = iinst < instsNum ? instsProps.begin(iinst) : 0, end = iinst < instsNum ? instsProps.end(iinst) : 0; i < end; ++i)
+						instanceProperties.add(instsProps.property(i));
+					vectors.put(iinst, instanceProperties);
+				}
+				if(typeProperty.equals(s[1])) {
+					instsTyped.set(iinst);
+					continue;
+				}
+				final int  prop = propsNames.add(s[1]);
+				instanceProperties.add(prop);
+				++ocrs;
+				if(prop == propsOcrs.length)
+					propsOcrs = Arrays.copyOf(propsOcrs, prop * 2);
+				++propsOcrs[prop];
+			}
+		}
+		this.propsocrs += ocrs;
+		this.propsOccurs = Arrays.copyOf(propsOcrs, propsNames.size());
+
+		// Omit the instances that are not changed
+		BitSet  affected = new BitSet(instsNames.size());
+		vectors.entrySet().removeIf(vec -> {
+			vec.getValue().seal(true);
+			return vec.getKey() < instsNum && vec.getValue().propsNum == instsProps.count(vec.getKey());
+		});
+		vectors.keySet().forEach(affected::set);
+		
+		// Update the automatically evaluated weights of the properties if required
+		BitSet  updated = new BitSet(propsNames.size());  // Properties having the updated weights
+		for(int i = 0; i < propsNames.size(); ++i) {
+			if(i < propsNum && !propsAuto.get(i))
+				continue;
+			final float  weight = (float)Math.sqrt(1./propsOccurs[i]);
+			if(i >= propsNum)
+				propsAuto.set(i);
+			else if(Math.abs(weight - weights[i]) <= weps * weights[i])
+				continue;
+			propsWeights.put(propsNames.term(i), weight);
+			if(i < propsNum)
+				updated.set(i);
+		}
+		// Note: the weights are resolved from the updated propsWeights
+		pweights = null;
+		// Instances having properties with the updated weights are affected
+		if(!updated.isEmpty())
+			for(int i = affected.nextClearBit(0); i < instsNum; i = affected.nextClearBit(i + 1))
+				for(int k = instsProps.begin(i), end = instsProps.end(i); k < end; ++k)
+					if(updated.get(instsProps.property(k))) {
+						affected.set(i);
+						break;
+					}
+		// Update the property vectors
+		instsProps = instsProps.update(instsNames.size(), vectors);
+		System.out.println("Delta " + n3Delta + " is applied: " + (instsNames.size() - instsNum) + " new instances, "
+			+ vectors.size() + " updated vectors, " + (propsNames.size() - propsNum) + " new properties, "
+			+ updated.cardinality() + " updated weights, " + affected.cardinality() + " affected instances");
+		return affected;
+	}
+
 	static class InstPropsStat {
 		// Note: TreeSet consumes too much
 		public ArrayList<String>  properties = null;
@@ -341,61 +715,78 @@ public class SimilarityMatix {
 	public interface TriConsumer<T1, T2, T3> {
 		void accept(T1 t1, T2 t2, T3 t3);
 	}
+
+	//! Sort the items and remove duplicates
+	//!
+	//! @param items  - items to be ordered and deduplicated in place
+	static <T extends Comparable<? super T>> void sortUnique(ArrayList<T> items) {
+		if(items.size() <= 1)
+			return;
+		Collections.sort(items);
+		int  n = 1;
+		for(int i = 1; i < items.size(); ++i)
+			if(items.get(i).compareTo(items.get(n - 1)) != 0)
+				items.set(n++, items.get(i));
+		items.subList(n, items.size()).clear();
+	}
 		
 	//! Load enities statistics (of subjects and their properties) from the labeled dataset
 	//!
 	//! @param n3DataSet  - RDF dataset in N3/quad format containing the type information
 	//! @param props  - target properties to be accunted, null means all available properties
 	//! @param dirty  - the input data is dirty and might contain duplicated triples that should be eliminated
-	private static TreeMap<String, InstPropsStat> loadInstanceProperties(String n3DataSet, Set<String> props, final boolean dirty) throws IOException {
+	//! @return  - instances statistics having the ordered types and, in the dirty mode, unique properties
+	static HashMap<String, InstPropsStat> loadInstanceProperties(String n3DataSet, Set<String> props, final boolean dirty) throws IOException {
 		// instanceName, i.e. subject: InstPropsStat
-		TreeMap<String, InstPropsStat>  instsSProps = new TreeMap<String, InstPropsStat>();
-		TreeSet<String>  allprops = new TreeSet<String>();  // All properties of the second dataset
-		TreeSet<String>  alltypes = new TreeSet<String>();  // All types of the second dataset
+		HashMap<String, InstPropsStat>  instsSProps = new HashMap<String, InstPropsStat>();
+		// Note: the names are canonicalized to share a single String instance among all occurrences
+		HashMap<String, String>  allprops = new HashMap<String, String>();  // All properties of the second dataset
+		HashMap<String, String>  alltypes = new HashMap<String, String>();  // All types of the second dataset
 		
-		// Accumulate names
-		TriConsumer<String, TreeSet<String>, ArrayList<String>> accnames = (name, allnames, names) -> {
-			if(!allnames.add(name))
-				name = allnames.tailSet(name).first();
-			if(dirty && !names.isEmpty()) {
-				int pos = Collections.binarySearch(names, name);
-				if(pos >= 0)  // The item is already present
-					return;
-				// New item
-				pos = -pos - 1;
-				names.add(pos, name);
-			} else names.add(name);
+		// Accumulate names, the duplicates are removed after the loading
+		TriConsumer<String, HashMap<String, String>, ArrayList<String>> accnames = (name, allnames, names) -> {
+			final String  cname = allnames.putIfAbsent(name, name);
+			names.add(cname != null ? cname : name);
 		};
 		
-		try(Stream<String> stream = Files.lines(Paths.get(n3DataSet))) {
-			stream.forEach(line -> {
-				final String[] s = parseTriple(line);
-				if(s == null)
-					return;
-				final String prop = s[1];
-				final String instance = s[0];
-				InstPropsStat propstat = instsSProps.get(instance);
-				if (propstat == null) {
-					propstat = new InstPropsStat();
-					instsSProps.put(instance, propstat);
-				}
-				final String obj = s[2];
-				if(!typeProperty.equals(prop)) {
-					// Consider only the specified properties
-					if(props != null && !props.contains(obj))
-						return;
-					if(propstat.properties == null)
-						propstat.properties = new ArrayList<String>();
-					// Update all props and get the property from the existing object
-					accnames.accept(obj, allprops, propstat.properties);
-				} else {
-					if(propstat.types == null)
-						propstat.types = new ArrayList<String>();
-					// Consider concrete types (objects)
-					accnames.accept(obj, alltypes, propstat.types);
+		// Note: the lines are read and parsed in the pipeline while the triples are accumulated
+		try(TriplesReader  reader = new TriplesReader(n3DataSet)) {
+			for(String[][] triples; (triples = reader.next()) != null;)
+				for(String[] s: triples) {
+					final String prop = s[1];
+					final String instance = s[0];
+					InstPropsStat propstat = instsSProps.get(instance);
+					if (propstat == null) {
+						propstat = new InstPropsStat();
+						instsSProps.put(instance, propstat);
+					}
+					final String obj = s[2];
+					if(!typeProperty.equals(prop)) {
+						// Consider only the specified properties
+						if(props != null && !props.contains(obj))
+							continue;
+						if(propstat.properties == null)
+							propstat.properties = new ArrayList<String>();
+						// Update all props and get the property from the existing object
+						accnames.accept(obj, allprops, propstat.properties);
+					} else {
+						if(propstat.types == null)
+							propstat.types = new ArrayList<String>();
+						// Consider concrete types (objects)
+						accnames.accept(obj, alltypes, propstat.types);
+					}
 				}
-			});
 		}
+		// Order the types (required for their merging) and remove the duplicates
+		instsSProps.forEach((inst, propstat) -> {
+			if(propstat.types != null) {
+				if(dirty)
+					sortUnique(propstat.types);
+				else Collections.sort(propstat.types);
+			}
+			if(dirty && propstat.properties != null)
+				sortUnique(propstat.properties);
+		});
 		return instsSProps;
 	}
 
@@ -439,7 +830,105 @@ public class SimilarityMatix {
 	public void loadGtData(String n3DataSet, HashMap<String, Integer> propsocrs, final boolean dirty, final boolean purePropStat) throws IOException {
 		// Instance (subject): InstPropsStat
 		// Note: properties.keySet() has sense to supply only for the huge GT datasets like DBPedia, not for the prelabled samples
-		TreeMap<String, InstPropsStat> instPStats = loadInstanceProperties(n3DataSet, purePropStat ? propsocrs.keySet() : null, dirty);  // != null ? targProps : properties.keySet());
+		HashMap<String, InstPropsStat> instPStats = loadInstanceProperties(n3DataSet, purePropStat ? propsocrs.keySet() : null, dirty);  // != null ? targProps : properties.keySet());
+		evalPropsWeights(instPStats.values(), propsocrs, purePropStat);
+	}
+
+	//! Evaluate properties weights from the types captured on the input dataset loading
+	//!
+	//! The weights are the same as loadGtData() yields for the input dataset itself, but without its re-reading.
+	//! @param propsocrs  - properties and their occurrences from the input dataset, whose weight should be evalauted
+	//! @param dirty  - the input data is dirty and might contain duplicated triples that should be eliminated
+	public void loadGtData(HashMap<String, Integer> propsocrs, final boolean dirty) {
+		if(!typesCaptured())
+			throw new IllegalStateException("The types of the instances were not captured on the loading");
+		// Ranks of the types in order of their names
+		final int  typesNum = typesNames.size();
+		final String[]  types = new String[typesNum];
+		for(int i = 0; i < typesNum; ++i)
+			types[i] = typesNames.term(i);
+		final Integer[]  order = IntStream.range(0, typesNum).boxed().toArray(Integer[]::new);
+		Arrays.sort(order, (t1, t2) -> types[t1].compareTo(types[t2]));
+		final int[]  ranks = new int[typesNum];
+		for(int i = 0; i < typesNum; ++i)
+			ranks[order[i]] = i;
+
+		// Ranks of the types grouped by the instances
+		final int  instsNum = instsProps.size();
+		final int[]  begs = typesBegs;
+		final int[]  tranks = new int[typesIds.length];
+		for(int i = 0; i < typesIds.length; ++i)
+			tranks[i] = ranks[typesIds[i]];
+
+		// Form the instances statistics of the target properties
+		ArrayList<InstPropsStat>  instPStats = new ArrayList<InstPropsStat>(instsNum);
+		for(int i = 0; i < instsNum; ++i) {
+			InstPropsStat  propstat = new InstPropsStat();
+			if(begs[i] != begs[i + 1]) {
+				Arrays.sort(tranks, begs[i], begs[i + 1]);
+				propstat.types = new ArrayList<String>(begs[i + 1] - begs[i]);
+				for(int k = begs[i]; k < begs[i + 1]; ++k)
+					if(!dirty || k == begs[i] || tranks[k] != tranks[k - 1])
+						propstat.types.add(types[order[tranks[k]]]);
+			}
+			// Note: the stored properties are unique
+			for(int k = instsProps.begin(i), end = instsProps.end(i); k < end; ++k) {
+				final String  prop = propsNames.term(instsProps.property(k));
+				if(!propsocrs.containsKey(prop))
+					continue;
+				if(propstat.properties == null)
+					propstat.properties = new ArrayList<String>();
+				propstat.properties.add(prop);
+			}
+			instPStats.add(propstat);
+		}
+		evalPropsWeights(instPStats, propsocrs, true);
+	}
+
+	//! Evaluate properties weights from the ground-truth cache without the GT parsing
+	//!
+	//! The weights are the same as loadGtData() yields for the GT dataset of the cache.
+	//! @param gtcache  - the cache of the GT dataset
+	//! @param propsocrs  - properties and their occurrences from the input dataset, whose weight should be evalauted
+	void loadGtData(GtCache gtcache, HashMap<String, Integer> propsocrs) {
+		final HashMap<String, TypeStat>  typesStats = new HashMap<String, TypeStat>((int)Math.sqrt(propsocrs.size()), 0.85f);
+		final HashMap<String, ArrayList<TypePropOcr>>  propsTypes = new HashMap<String, ArrayList<TypePropOcr>>(propsocrs.size(), 1);
+		final int  instsNum = gtcache.aggregate(propsocrs, propsTypes, typesStats);
+		// Note: loadGtData() does not retain the types of the properties met in the GT
+		// (see evalPropsWeights()), so the properties are not found here either
+		propsTypes.replaceAll((prop, ptocrs) -> null);
+		evalPropsWeights(propsTypes, typesStats, instsNum, propsocrs);
+	}
+
+	//! Release the types of the instances captured on the loading
+	public void releaseTypes() {
+		typesNames = null;
+		typesBegs = null;
+		typesIds = null;
+	}
+
+	//! Release the properties of the instances with their weights and accumulated masses
+	//!
+	//! Only the names, typed flags and captured types of the instances are retained, e.g. to label the clusters.
+	public void releaseVectors() {
+		instsProps = null;
+		propsNames = null;
+		propsOccurs = null;
+		propsAuto = null;
+		propsWeights = null;
+		pweights = null;
+		pweightsSrc = null;
+		imasses = null;
+		imassesWeights = null;
+		imassesProps = null;
+	}
+
+	//! Evaluate properties weights from the instances statistics
+	//!
+	//! @param instPStats  - instances statistics having the ordered types
+	//! @param propsocrs  - properties and their occurrences from the input dataset, whose weight should be evalauted
+	//! @param purePropStat  - the instances statistics are formed only for the input properties
+	private void evalPropsWeights(Collection<InstPropsStat> instPStats, HashMap<String, Integer> propsocrs, final boolean purePropStat) {
 		// The estimated number of types is square root of the number of properties
 		// Note: this hasmap will be resized is resizable, so use load factor < 1
 		final HashMap<String, TypeStat>  typesStats = new HashMap<String, TypeStat>((int)Math.sqrt(propsocrs.size()), 0.85f);
@@ -450,7 +939,7 @@ public class SimilarityMatix {
 		});
 
 		// For each property in the input dataset accumulate types with occurrences
-		instPStats.forEach((inst, propstat) -> {
+		instPStats.forEach(propstat -> {
 			// Skip instances that do not have any relation to the  properties of the input dataset
 			// or do not have types information
 			if(propstat.properties == null || propstat.types == null)
@@ -477,6 +966,7 @@ public class SimilarityMatix {
 						ptocrs.add(pos, new TypePropOcr(tname));
 					}
 				} else {
+					// Note: the instance types are ordered
 					ptocrs = propstat.types.stream().map((tname) -> new TypePropOcr(tname))
 						.collect(Collectors.toCollection(ArrayList::new));
 					assert !(propstat.types.isEmpty() || ptocrs.isEmpty()): "Prop types should exist and be be assigned";
@@ -495,7 +985,18 @@ public class SimilarityMatix {
 			++instsNum.val;
 		});
 		instPStats = null;
-		
+		evalPropsWeights(propsTypes, typesStats, instsNum.val, propsocrs);
+	}
+
+	//! Evaluate properties weights from the co-occurrences of the properties with the types
+	//!
+	//! @param propsTypes  - types with the occurrences of each input property ordered by the type name,
+	//! 	null for the properties absent in the GT; released on return
+	//! @param typesStats  - statistics of the types; released on return
+	//! @param instsNum  - the number of the GT instances having the input properties
+	//! @param propsocrs  - properties and their occurrences from the input dataset, whose weight should be evalauted
+	private void evalPropsWeights(HashMap<String, ArrayList<TypePropOcr>> propsTypes, HashMap<String, TypeStat> typesStats
+	, int instsNum, HashMap<String, Integer> propsocrs) {
 		// PropertyWeighCalculation --------------------------------------------
 		final HashMap<String, Float> propertiesWeights = new HashMap<String, Float>(propsocrs.size(), 1);
 		final ArrayList<String> notFoundProps = new ArrayList<String>();
@@ -513,7 +1014,7 @@ public class SimilarityMatix {
 			// Evaluate property weight
 			// Note: the types size is not important here, it will be captured by the similarity matrix,
 			// each type impcats equally on the accumulated significance / indicativity / weight of the property
-			final double  mulInsts = 1./instsNum.val;  // Instances multiplier
+			final double  mulInsts = 1./instsNum;  // Instances multiplier
 			double weight = 0;
 			for(TypePropOcr ptype: ptocrs) {
 				TypeStat tstat = typesStats.get(ptype.type);
@@ -568,112 +1069,154 @@ public class SimilarityMatix {
 		loadGtData(n3DataSet, propsocrs, dirty, true);
 	}
 
+	//! Property weights by the property ids
+	//!
+	//! @note The weights are resolved from the propsWeights on the first call after
+	//! 	the propsWeights assignment
+	float[] weights() {
+		if(pweightsSrc != propsWeights || pweights == null) {
+			pweights = new float[propsNames.size()];
+			if(propsWeights != null)
+				for(int i = 0; i < pweights.length; ++i)
+					pweights[i] = propsWeights.getOrDefault(propsNames.term(i), 0.f);
+			pweightsSrc = propsWeights;
+		}
+		return pweights;
+	}
+
+	//! Resolve the property weights and instances masses for the concurrent similarity evaluation
+	//!
+	//! @param simkern  - similarity kernel
+	void prepare(final SimilarityKernel simkern) {
+		masses(simkern.squared());
+	}
+
+	//! Set the similarity kernel
+	//!
+	//! @param type  - kernel type, see IntersectionKernel.create()
+	public void setKernel(String type) {
+		kernel = IntersectionKernel.create(type);
+		System.out.println("Similarity kernel: " + kernel.name());
+	}
+
+	//! Accumulated weights of the instances properties
+	//!
+	//! @param squared  - accumulate squared weights (for the Cosine similarity)
+	//! @return  - accumulated weights by the instance index
+	double[] masses(boolean squared) {
+		final float[]  weights = weights();
+		if(imasses == null || imassesWeights != weights || imassesProps != instsProps || imassesSquared != squared) {
+			final PropertiesStore  props = instsProps;
+			imasses = new double[props.size()];
+			for(int i = 0; i < imasses.length; ++i) {
+				double  mass = 0;
+				for(int k = props.begin(i), end = props.end(i); k < end; ++k) {
+					final double  weight = weights[props.property(k)];
+					mass += squared ? weight * weight : weight;
+				}
+				imasses[i] = mass;
+			}
+			imassesWeights = weights;
+			imassesProps = props;
+			imassesSquared = squared;
+		}
+		return imasses;
+	}
+
 	//*********************************************Calculating Cosin Similarity****************************************************************
 	//! Evaluate similatity between the instances
 	//! @note sim(a, a) = 1, but typically does not used in the clustering
 	//! @param instance1  - first instance
 	//! @param instance2  - second instance
-	//! @param jaccard  - evaluate (weighted) Jaccard instead of the Cosine similarity
-	//! @return consine similarity
-	public double similarity(String instance1, String instance2, final boolean jaccard) {
+	//! @param simkern  - similarity kernel
+	//! @return similarity
+	public double similarity(String instance1, String instance2, final SimilarityKernel simkern) {
 		if (instance1 == instance2)
 			return 1;
-		double inst1TotWeight = 0;
-		double inst2TotWeight = 0;
-		double powerCommon =0;
-
-		TreeSet<String> instance1Properties = instsProps.get(instance1).properties;
-		TreeSet<String> instance2Properties = instsProps.get(instance2).properties;
-		if (instance1Properties.size() > instance2Properties.size()) {
-			TreeSet<String> tempTreeSet = instance1Properties;
-			instance1Properties = instance2Properties;
-			instance2Properties = tempTreeSet;
-		}
-		
-		if(instance1Properties.isEmpty() || instance2Properties.isEmpty()) {
-			if(instance1Properties.isEmpty() && instance2Properties.isEmpty())
+		return similarity(instsNames.id(instance1), instsNames.id(instance2), simkern);
+	}
+
+	//! Evaluate similatity between the instances
+	//! @note sim(a, a) = 1, but typically does not used in the clustering
+	//! @param iinst1  - index of the first instance
+	//! @param iinst2  - index of the second instance
+	//! @param simkern  - similarity kernel
+	//! @return similarity
+	public double similarity(int iinst1, int iinst2, final SimilarityKernel simkern) {
+		return similarity(iinst1, iinst2, simkern, 0);
+	}
+
+	//! Evaluate similatity between the instances pruning the pairs that can't reach the threshold
+	//!
+	//! The pair is pruned without the common properties evaluation if the lighter instance can't reach
+	//! the threshold, and the evaluation is interrupted as soon as the accumulated common weight with
+	//! the remained weight of any instance can't reach it.
+	//! @param iinst1  - index of the first instance
+	//! @param iinst2  - index of the second instance
+	//! @param simkern  - similarity kernel, the pruning is applied only if the kernel supports it
+	//! @param threshold  - the similarity threshold, 0 means evaluate without the pruning
+	//! @return similarity, 0 if the pair is pruned. The pair is pruned only if its similarity is below
+	//! 	the threshold, but not all such pairs are pruned
+	public double similarity(int iinst1, int iinst2, final SimilarityKernel simkern, final double threshold) {
+		if (iinst1 == iinst2)
+			return 1;
+		final PropertiesStore  props = instsProps;
+		if(props.count(iinst1) == 0 || props.count(iinst2) == 0) {
+			if(props.count(iinst1) == 0 && props.count(iinst2) == 0)
 				return 1;
 			return 0;
 		}
 		
-		if(jaccard) {
-			// Weighted Jaccard similarity
-			for(String prop1: instance1Properties) {
-				double weight = (double)propsWeights.getOrDefault(prop1, 0.f);
-				if(weight == 0)
-					continue;
-				inst1TotWeight += weight;
-				if(instance2Properties.contains(prop1))
-					powerCommon += weight;
-			}
-
-			for(String prop2: instance2Properties) {
-				double weight = (double)propsWeights.getOrDefault(prop2, 0.f);
-				if(weight == 0)
-					continue;
-				inst2TotWeight += weight;
-			}
-			//   System.out.print(powerlist);
-
-			return powerCommon / (inst1TotWeight + inst2TotWeight);
-		}
-
-		// Weighted Cosine similarity
-		for(String prop1: instance1Properties) {
-			double weight = (double)propsWeights.getOrDefault(prop1, 0.f);
-			if(weight == 0)
-				continue;
-			weight *= weight;
-			inst1TotWeight += weight;
-			if(instance2Properties.contains(prop1))
-				powerCommon += weight;
+		// Note: the properties are ordered and unique, so the common properties are identified by the
+		// merge and the weights of all properties of the instances are accumulated once per instance
+		final boolean  squared = simkern.squared();
+		final double[]  masses = masses(squared);
+		if(threshold > 0 && simkern.supportsPruning()) {
+			final double  mass1 = masses[iinst1];
+			final double  mass2 = masses[iinst2];
+			// Note: the slack tolerates rounding errors of the accumulated weights
+			final double  required = simkern.required(threshold, mass1, mass2) * (1 - pruningSlack);
+			// The common weight does not exceed the mass of any instance
+			if(Math.min(mass1, mass2) < required)
+				return 0;
+			final double  common = kernel.common(props, iinst1, iinst2, weights(), squared, required, mass1, mass2);
+			return common >= required ? simkern.combine(common, mass1, mass2) : 0;
 		}
-		inst1TotWeight = Math.sqrt(inst1TotWeight);
+		final double powerCommon = kernel.common(props, iinst1, iinst2, weights(), squared);
 
-		for(String prop2: instance2Properties) {
-			double weight = (double)propsWeights.getOrDefault(prop2, 0.f);
-			if(weight == 0)
-				continue;
-			weight *= weight;
-			inst2TotWeight += weight;
-		}
-		inst2TotWeight = Math.sqrt(inst2TotWeight);
 		//   System.out.print(powerlist);
-
 		//  System.out.println("Results: "+instance1+" "+instance2+" "+powerCommon+" /{ "+instance1TotalWeight1+" * "+instance1TotalWeight2+" } ");
-		//if(tracingOn) {
-		//	FileWriter fw = new FileWriter("./outputfile.txt");
-		//	BufferedWriter output = new BufferedWriter(fw);
-		//	output.write( "Results: "+instance1+" "+instance2+" "+powerCommon+" /{ "+instance1TotalWeight1+" * "+instance1TotalWeight2+" } ");
-		//	output.flush();
-		//}
-		return powerCommon / (inst1TotWeight * inst2TotWeight);
+		return simkern.combine(powerCommon, masses[iinst1], masses[iinst2]);
 	}
 
 
-	public double[][] symmetricMatrixProgram(final boolean jaccard) {
-		Set<String> instances = instsProps.keySet();
-		final int n = instances.size();
+	//! Evaluate the sparse similarity matrix of the loaded instances
+	//!
+	//! @param simkern  - similarity kernel
+	//! @param threshold  - min similarity to be stored
+	//! @return  - upper-triangular sparse matrix
+	public SparseSimilarity sparseMatrix(final SimilarityKernel simkern, float threshold) {
+		return SparseSimilarity.evaluate(this, simkern, threshold);
+	}
+
+	//! @deprecated  The dense matrix does not scale, use sparseMatrix()
+	@Deprecated
+	public double[][] symmetricMatrixProgram(final SimilarityKernel simkern) {
+		final int n = instsProps.size();
 		double matrix[][] = new double[n][n];
 	 
-		int i = 0;
-		int j = 0;
-		// Note: Java iterators are not copyable and there is not way to get iterator to the custom item,
-		// so even for the symmetric matrix all iterations should be done
-		for (String inst1: instances) {
-			for (String inst2: instances) {
+		for (int i = 0; i < n; ++i) {
+			for (int j = 0; j < n; ++j) {
 				if(j > i) {
-					matrix[i][j] = similarity(inst1, inst2, jaccard);
+					matrix[i][j] = similarity(i, j, simkern);
 					//if(tracingOn)
 					//	System.out.print(matrix[i][j] + " ");
 				} else if (j < i)
 					matrix[i][j] = matrix[j][i];
 				else matrix[i][j] = 1;
-				++j;
 			}
 			//if(tracingOn)
 			//	System.out.println();
-			++i;
 		}
 		
 		return matrix;
@@ -0,0 +1,251 @@
+package info.exascale.statix;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+//! Similarity query service answering the top-k nearest neighbours of the instances
+//!
+//! The loaded property vectors, weights and the inverted index of the properties are retained in
+//! memory. The similarities are accumulated over the inverted index in order of the property ids,
+//! so they are identical to SimilarityMatix.similarity().
+//!
+//! The line-based protocol (UTF-8):
+//! 	inst <k> <subject>  - neighbours of the loaded instance
+//! 	props <k> <property> ...  - neighbours of the ad-hoc properties set, unknown properties are omitted
+//! 	quit  - close the session
+//! Each response consists of the lines <id>\t<similarity>\t<subject> ordered by the decreasing
+//! similarity and is terminated by the empty line. The failed request yields "ERROR\t<message>"
+//! followed by the empty line.
+public class SimilarityService {
+	public static final int  kmax = 100000;  // Max number of the requested neighbours
+
+	private final SimilarityMatix  csmat;
+	private final SimilarityKernel  simkern;  // Similarity kernel
+	private final PropertiesIndex  index;
+	private final float[]  weights;  // Property weights by the property id
+	private final double[]  masses;  // Accumulated contributions of the instances properties
+
+	//! Neighbour instance
+	public static class Neighbour {
+		public final int  index;  // Instance index
+		public final double  similarity;
+
+		public Neighbour(int index, double similarity) {
+			this.index = index;
+			this.similarity = similarity;
+		}
+	}
+
+	//! Query session holding the accumulators of the similarities
+	//! @note The session is not thread-safe, each concurrent client should have own session
+	public class Session {
+		private final double[]  commons = new double[csmat.instancesNum()];  // Accumulated weights of the common properties
+		private final int[]  touched = new int[csmat.instancesNum()];  // Instances having the common properties
+		private final boolean[]  marked = new boolean[csmat.instancesNum()];
+		// Own lookups of the names, which are not shared with the concurrent sessions
+		private final UriDictionary.Lookup  instsLookup = csmat.instancesLookup();
+		private final UriDictionary.Lookup  propsLookup = csmat.propertiesLookup();
+
+		//! Nearest neighbours of the loaded instance
+		//!
+		//! @param iinst  - instance index
+		//! @param k  - max number of the neighbours
+		//! @return  - neighbours ordered by the decreasing similarity
+		public Neighbour[] nearest(int iinst, int k) {
+			final PropertiesStore  props = csmat.properties();
+			int[]  qprops = new int[props.count(iinst)];
+			for(int i = 0; i < qprops.length; ++i)
+				qprops[i] = props.property(props.begin(iinst) + i);
+			return nearest(qprops, iinst, k);
+		}
+
+		//! Nearest neighbours of the properties set
+		//!
+		//! @param properties  - property names, the unknown ones are omitted
+		//! @param k  - max number of the neighbours
+		//! @return  - neighbours ordered by the decreasing similarity
+		public Neighbour[] nearest(String[] properties, int k) {
+			int[]  qprops = new int[properties.length];
+			int  n = 0;
+			for(String prop: properties) {
+				final int  id = propsLookup.id(prop);
+				if(id != -1)
+					qprops[n++] = id;
+			}
+			// Order the properties and remove duplicates
+			Arrays.sort(qprops, 0, n);
+			int  nu = n != 0 ? 1 : 0;
+			for(int i = 1; i < n; ++i)
+				if(qprops[i] != qprops[nu - 1])
+					qprops[nu++] = qprops[i];
+			return nearest(Arrays.copyOf(qprops, nu), -1, k);
+		}
+
+		//! Nearest neighbours of the ordered unique properties
+		//!
+		//! @param qprops  - ordered unique property ids
+		//! @param self  - index of the instance to be omitted, -1 if none
+		//! @param k  - max number of the neighbours
+		//! @return  - neighbours ordered by the decreasing similarity
+		private Neighbour[] nearest(int[] qprops, int self, int k) {
+			if(k <= 0 || k > kmax)
+				throw new IllegalArgumentException("The number of neighbours is out of range: " + k);
+			// Note: the candidates having equal similarity are ordered by the index
+			double[]  topsims = new double[k];
+			int[]  topinsts = new int[k];
+			int  ntop = 0;
+			// Instances without any properties are similar to each other
+			if(qprops.length == 0) {
+				for(int iinst: index.empty())
+					if(iinst != self && ntop < k) {
+						topsims[ntop] = 1;
+						topinsts[ntop++] = iinst;
+					}
+				return neighbours(topsims, topinsts, ntop);
+			}
+			// Accumulate the common weights in order of the property ids
+			double  qmass = 0;
+			int  ntouched = 0;
+			for(int prop: qprops) {
+				final double  weight = simkern.contribution(weights[prop]);
+				qmass += weight;
+				for(int ip = index.begin(prop), end = index.end(prop); ip < end; ++ip) {
+					final int  iinst = index.instance(ip);
+					if(!marked[iinst]) {
+						marked[iinst] = true;
+						touched[ntouched++] = iinst;
+					}
+					commons[iinst] += weight;
+				}
+			}
+			// Select the top neighbours
+			for(int i = 0; i < ntouched; ++i) {
+				final int  iinst = touched[i];
+				final double  common = commons[iinst];
+				commons[iinst] = 0;
+				marked[iinst] = false;
+				if(iinst == self)
+					continue;
+				final double  sim = simkern.combine(common, qmass, masses[iinst]);
+				// Omit zero and undefined similarities
+				if(!(sim > 0) || (ntop == k && (sim < topsims[k - 1] || (sim == topsims[k - 1] && iinst > topinsts[k - 1]))))
+					continue;
+				// Insert the neighbour
+				int  pos = ntop < k ? ntop++ : k - 1;
+				for(; pos > 0 && (topsims[pos - 1] < sim || (topsims[pos - 1] == sim && topinsts[pos - 1] > iinst)); --pos) {
+					topsims[pos] = topsims[pos - 1];
+					topinsts[pos] = topinsts[pos - 1];
+				}
+				topsims[pos] = sim;
+				topinsts[pos] = iinst;
+			}
+			return neighbours(topsims, topinsts, ntop);
+		}
+
+		//! Process the requests
+		//!
+		//! @param input  - requests
+		//! @param output  - responses
+		public void serve(InputStream input, OutputStream output) throws IOException {
+			BufferedReader  reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+			Writer  writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+			String  line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty())
+					continue;
+				if(line.equals("quit"))
+					break;
+				try {
+					final String[]  args = line.split("\\s+");
+					if(args.length < 2 || !(args[0].equals("inst") || args[0].equals("props")))
+						throw new IllegalArgumentException("Unknown request: " + line);
+					final int  k = Integer.parseInt(args[1]);
+					if(k <= 0 || k > kmax)
+						throw new IllegalArgumentException("The number of neighbours is out of range: " + k);
+					Neighbour[]  neighbours;
+					if(args[0].equals("inst")) {
+						if(args.length != 3)
+							throw new IllegalArgumentException("A single subject is expected: " + line);
+						final int  iinst = instsLookup.id(args[2]);
+						if(iinst == -1)
+							throw new IllegalArgumentException("The subject does not exist: " + args[2]);
+						neighbours = nearest(iinst, k);
+					} else neighbours = nearest(Arrays.copyOfRange(args, 2, args.length), k);
+					for(Neighbour nb: neighbours) {
+						writer.write(Integer.toUnsignedString(csmat.instanceId(nb.index)));
+						writer.write('\t');
+						writer.write(Double.toString(nb.similarity));
+						writer.write('\t');
+						writer.write(csmat.instanceName(nb.index));
+						writer.write('\n');
+					}
+				} catch(IllegalArgumentException err) {
+					writer.write("ERROR\t" + err.getMessage() + "\n");
+				}
+				writer.write('\n');
+				writer.flush();
+			}
+		}
+	}
+
+
+	//! Construct the service
+	//!
+	//! @param csmat  - similarity matrix (loaded instances and property weights)
+	//! @param simkern  - similarity kernel, which should support the inverted index
+	public SimilarityService(SimilarityMatix csmat, SimilarityKernel simkern) {
+		if(!simkern.supportsIndex())
+			throw new IllegalArgumentException("The similarity kernel does not support the inverted index: " + simkern.name());
+		this.csmat = csmat;
+		this.simkern = simkern;
+		csmat.prepare(simkern);
+		weights = csmat.weights();
+		masses = csmat.masses(simkern.squared());
+		index = new PropertiesIndex(csmat.properties(), csmat.propertiesNum());
+	}
+
+	//! Form the neighbours
+	private static Neighbour[] neighbours(double[] sims, int[] insts, int num) {
+		Neighbour[]  res = new Neighbour[num];
+		for(int i = 0; i < num; ++i)
+			res[i] = new Neighbour(insts[i], sims[i]);
+		return res;
+	}
+
+	//! Create the query session
+	public Session session()  { return new Session(); }
+
+	//! Serve the clients on the local (loopback) TCP port, each client is served by a dedicated thread
+	//!
+	//! @param port  - TCP port
+	public void listen(int port) throws IOException {
+		try(ServerSocket  server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+			System.out.println("The similarity query service is listening on " + server.getLocalSocketAddress());
+			while(true) {
+				final Socket  client = server.accept();
+				Thread  worker = new Thread(() -> {
+					try(Socket  sock = client) {
+						session().serve(sock.getInputStream(), sock.getOutputStream());
+					} catch(IOException err) {
+						System.err.println("ERROR, the query session is interrupted: " + err.getMessage());
+					}
+				});
+				worker.setDaemon(true);
+				worker.start();
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package info.exascale.statix;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+
+//! Sparse upper-triangular similarity matrix of the instances in the CSR format
+//!
+//! Only the non-zero similarities of the pairs (i, j), j > i, are stored, ordered by the
+//! destination index within each row. The diagonal (self-similarity) is 1 and is not stored.
+//! The matrix is evaluated in parallel over the pairs of instances sharing at least one property,
+//! which are identified by the inverted index of the properties.
+public class SparseSimilarity {
+	private final int  size;  // The number of instances (rows)
+	private final SimilarityKernel  simkern;  // Similarity kernel
+	private final float  threshold;  // Min stored similarity
+	private final int[]  offsets;  // Offsets of the rows in the cols and weights, size + 1
+	private final int[]  cols;  // Destination instance indices
+	private final float[]  weights;  // Similarities
+
+	//! Consumer of the matrix entries
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(int src, int dst, float weight);
+	}
+
+	//! Matrix entry
+	public static class Entry {
+		public final int  src;  // Source instance index (row)
+		public final int  dst;  // Destination instance index (column), dst > src
+		public final float  weight;  // Similarity
+
+		public Entry(int src, int dst, float weight) {
+			this.src = src;
+			this.dst = dst;
+			this.weight = weight;
+		}
+
+		public String toString()  { return src + " " + dst + " " + weight; }
+	}
+
+
+	private SparseSimilarity(int size, SimilarityKernel simkern, float threshold, int[] offsets, int[] cols, float[] weights) {
+		this.size = size;
+		this.simkern = simkern;
+		this.threshold = threshold;
+		this.offsets = offsets;
+		this.cols = cols;
+		this.weights = weights;
+	}
+
+	//! Evaluate the similarity matrix
+	//!
+	//! @param csmat  - similarity matrix (loaded instances and property weights)
+	//! @param simkern  - similarity kernel
+	//! @param threshold  - min similarity to be stored, similarities <= 0 are never stored
+	//! @return  - the matrix
+	public static SparseSimilarity evaluate(SimilarityMatix csmat, final SimilarityKernel simkern, final float threshold) {
+		final int  size = csmat.instancesNum();
+		if(size == 0)
+			return new SparseSimilarity(0, simkern, threshold, new int[1], new int[0], new float[0]);
+		final PropertiesStore  props = csmat.properties();
+		// Resolve the weights and instances masses before the concurrent evaluation
+		csmat.prepare(simkern);
+
+		// Note: instances without any properties are similar to each other
+		final PropertiesIndex  index = new PropertiesIndex(props, csmat.propertiesNum());
+
+		// Evaluate rows in parallel
+		final int[][]  rcols = new int[size][];
+		final float[][]  rweights = new float[size][];
+		// Scratch buffers of the workers: stamps of the candidate destinations marked by the source
+		// instance index + 1 and the candidates
+		final ConcurrentLinkedQueue<int[][]>  scratches = new ConcurrentLinkedQueue<int[][]>();
+		IntStream.range(0, size).parallel().forEach(i -> {
+			int[][]  scratch = scratches.poll();
+			if(scratch == null)
+				scratch = new int[][] {new int[size], new int[size]};
+			final int[]  stamp = scratch[0];
+			final int[]  cands = scratch[1];
+			int  ncands = 0;
+			if(!simkern.supportsIndex()) {
+				// All succeeding instances are the candidates
+				for(int j = i + 1; j < size; ++j)
+					cands[ncands++] = j;
+			} else {
+				ncands = index.candidates(props, i, true, stamp, cands);
+				Arrays.sort(cands, 0, ncands);
+			}
+			int[]  rowcols = new int[ncands];
+			float[]  rowweights = new float[ncands];
+			int  n = 0;
+			for(int k = 0; k < ncands; ++k) {
+				// Note: the pairs that can't reach the threshold are pruned
+				final double  sim = csmat.similarity(i, cands[k], simkern, threshold);
+				if(sim <= 0 || sim < threshold)
+					continue;
+				rowcols[n] = cands[k];
+				rowweights[n++] = (float)sim;
+			}
+			rcols[i] = n != ncands ? Arrays.copyOf(rowcols, n) : rowcols;
+			rweights[i] = n != ncands ? Arrays.copyOf(rowweights, n) : rowweights;
+			scratches.offer(scratch);
+		});
+
+		// Pack the rows
+		final int[]  offsets = new int[size + 1];
+		long  entries = 0;
+		for(int i = 0; i < size; ++i) {
+			entries += rcols[i].length;
+			if(entries > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("The number of similarities exceeds the max size: "
+					+ entries + " at the instance #" + i + ", consider the threshold");
+			offsets[i + 1] = (int)entries;
+		}
+		final int[]  cols = new int[(int)entries];
+		final float[]  weights = new float[(int)entries];
+		for(int i = 0; i < size; ++i) {
+			System.arraycopy(rcols[i], 0, cols, offsets[i], rcols[i].length);
+			System.arraycopy(rweights[i], 0, weights, offsets[i], rweights[i].length);
+			rcols[i] = null;
+			rweights[i] = null;
+		}
+		return new SparseSimilarity(size, simkern, threshold, offsets, cols, weights);
+	}
+
+	//! The number of instances (rows)
+	public int size()  { return size; }
+
+	//! The number of stored similarities (non-zero pairs of the upper triangle)
+	public int entries()  { return cols.length; }
+
+	//! Similarity kernel
+	public SimilarityKernel kernel()  { return simkern; }
+
+	//! Min stored similarity
+	public float threshold()  { return threshold; }
+
+	//! Begin of the row entries
+	public int begin(int iinst)  { return offsets[iinst]; }
+
+	//! End of the row entries
+	public int end(int iinst)  { return offsets[iinst + 1]; }
+
+	//! Destination instance index of the entry
+	public int col(int pos)  { return cols[pos]; }
+
+	//! Similarity of the entry
+	public float weight(int pos)  { return weights[pos]; }
+
+	//! Similarity of the instances
+	//!
+	//! @param iinst1  - index of the first instance
+	//! @param iinst2  - index of the second instance
+	//! @return  - the similarity, 0 if it is not stored (or was below the threshold)
+	public float get(int iinst1, int iinst2) {
+		if(iinst1 == iinst2)
+			return 1;
+		if(iinst1 > iinst2) {
+			final int  itmp = iinst1;
+			iinst1 = iinst2;
+			iinst2 = itmp;
+		}
+		final int  pos = Arrays.binarySearch(cols, offsets[iinst1], offsets[iinst1 + 1], iinst2);
+		return pos >= 0 ? weights[pos] : 0;
+	}
+
+	//! Traverse all entries in order of the rows
+	//!
+	//! @param consumer  - consumer of the entries
+	public void forEach(EntryConsumer consumer) {
+		for(int i = 0; i < size; ++i)
+			for(int k = offsets[i]; k < offsets[i + 1]; ++k)
+				consumer.accept(i, cols[k], weights[k]);
+	}
+
+	//! Stream of the entries
+	//!
+	//! @return  - the entries ordered by the rows, the stream can be parallelized
+	public Stream<Entry> stream() {
+		return IntStream.range(0, size).boxed().flatMap(i -> IntStream.range(offsets[i], offsets[i + 1])
+			.mapToObj(k -> new Entry(i, cols[k], weights[k])));
+	}
+
+	//! Form the dense symmetric matrix
+	//!
+	//! @return  - the dense matrix having 1 on the diagonal and the stored (float) similarities
+	public double[][] dense() {
+		double matrix[][] = new double[size][size];
+		for(int i = 0; i < size; ++i) {
+			matrix[i][i] = 1;
+			for(int k = offsets[i]; k < offsets[i + 1]; ++k)
+				matrix[i][cols[k]] = matrix[cols[k]][i] = weights[k];
+		}
+		return matrix;
+	}
+}
@@ -2,13 +2,18 @@ package info.exascale.statix;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.io.File;
 import java.io.Console;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import java.util.*;
@@ -48,9 +53,24 @@ public class Statix {
 	public static final String  extHints = ".ipl";  // Default extension of the hints file (indicativity of the property per line)
 	public static final String  extCls = ".cnl";  // Default extension of the clusters (inferred types) file (indicativity of the property per line)
 	public static final String  extNet = ".rcg";  // Default extension for the network (clustering input) file
+	public static final String  extAssign = ".cas";  // Default extension of the assigned clusters of the new instances
+	public static final int  labelChunk = 1 << 12;  // The number of the cluster members resolved by a task on the labeling
+	public static final String  stateLinks = "links.slx";  // Similarity links state file
+	public static final long  jvmReserve = 64L << 20;  // Memory reserved by the JVM besides the used heap (code, threads, collection), bytes
+	// Header comment of the partial network: # Partition <part>/<parts>, rows [<begin>, <end>)
+	private static final Pattern  partitionHeader = Pattern.compile("# Partition (\\d+)/(\\d+), rows \\[(\\d+), (\\d+)\\)");
 	
 	private static final boolean  tracingOn = false;  // Enable tracing
+	private static final Object  clusteringLock = new Object();  // Serializes the clustering by the native lib
 	private SimilarityMatix  csmat = new SimilarityMatix();
+	private SimilarityLinks  slinks = null;  // Similarity links of the instances (persisted in the state), null if not evaluated
+	private boolean  retainInstances = false;  // Retain the loaded instances after the clustering
+	private boolean  retainNames = false;  // Retain the names and types of the loaded instances after the clustering
+	private boolean  captureTypes = false;  // Capture the types of the instances on the loading for the labeling
+	private String  gtCacheFName = null;  // Cache file of the ground-truth dataset, null if the caching is disabled
+	private float  minSimilarity = 0;  // Min similarity of the linked instances, 0 means link all similar instances
+	private MemoryPlan  memoryPlan = null;  // Sparsification planned for the memory budget, null if not planned
+	private long  graphLinks = 0;  // The number of links supplied to the last built graph
 	
 	
 	public static String daocRevision()  { return daoc.libBuild().rev(); }
@@ -213,13 +233,71 @@ public class Statix {
 		}
 	}
 	
+	//! Pending back links of the succeeding instances formed on the evaluation of the preceding ones
+	//!
+	//! Allows to evaluate each pair of instances once on the links cutting, which requires
+	//! links of both directions. The weights statistics of the pending links are maintained
+	//! incrementally in order of the source instances.
+	static class PendingLinks {
+		private final int[][]  ids;  // Source instance indices by the destination instance index
+		private final float[][]  weights;  // Weights of the links by the destination instance index
+		private final int[]  sizes;  // The number of pending links by the destination instance index
+		final double[]  wsums;  // Sums of the pending links weights
+		final float[]  wmins;  // Min weights of the pending links
+
+		PendingLinks(int size) {
+			ids = new int[size][];
+			weights = new float[size][];
+			sizes = new int[size];
+			wsums = new double[size];
+			wmins = new float[size];
+			Arrays.fill(wmins, Float.MAX_VALUE);
+		}
+
+		//! Append the link to the destination instance
+		void append(int dst, int src, float weight) {
+			final int  n = sizes[dst];
+			if(ids[dst] == null || n == ids[dst].length) {
+				final int  capacity = n < 4 ? 4 : n + (n >> 1);
+				ids[dst] = ids[dst] == null ? new int[capacity] : Arrays.copyOf(ids[dst], capacity);
+				weights[dst] = weights[dst] == null ? new float[capacity] : Arrays.copyOf(weights[dst], capacity);
+			}
+			ids[dst][n] = src;
+			weights[dst][n] = weight;
+			sizes[dst] = n + 1;
+			wsums[dst] += weight;
+			if(wmins[dst] > weight)
+				wmins[dst] = weight;
+		}
+
+		//! The number of pending links of the instance
+		int size(int iinst)  { return sizes[iinst]; }
+
+		//! Source instance index of the link
+		int id(int iinst, int ilink)  { return ids[iinst][ilink]; }
+
+		//! Weight of the link
+		float weight(int iinst, int ilink)  { return weights[iinst][ilink]; }
+
+		//! Release the pending links of the instance
+		void release(int iinst) {
+			ids[iinst] = null;
+			weights[iinst] = null;
+			sizes[iinst] = 0;
+		}
+	}
+
 	//In case that only input file is givven to the app (without Ground-TRuth dataset)all the property weights will be set = 1
-	public void loadDataset(String n3DataSet, boolean filteringOn, String idMapFName, String hints, boolean dirty) throws IOException {
-		HashMap<String, Integer>  propsocrs = csmat.loadInputData(n3DataSet, filteringOn, idMapFName);
+	//! @return  - whether the input dataset has any properties to be processed
+	public boolean loadDataset(String n3DataSet, boolean filteringOn, String idMapFName, String hints, boolean dirty, boolean trim) throws IOException {
+		// Note: the types are captured on the loading for the automatic hints to evaluate the property weights
+		// without the input dataset re-reading
+		HashMap<String, Integer>  propsocrs = csmat.loadInputData(n3DataSet, filteringOn, idMapFName, trim
+			, captureTypes || (hints != null && hints.startsWith("-") && !hints.equals("--")));
 		
 		if(propsocrs.isEmpty()) {
 			System.err.println("WARNING, there are not any properties to be processed in the input dataset: " + n3DataSet);
-			System.exit(0);
+			return false;
 		}
 				
 		HashMap<String, Float> propsWeights = new HashMap<String, Float>(propsocrs.size(), 1);
@@ -310,7 +388,7 @@ public class Statix {
 						});
 						props = null;
 						
-						csmat.loadGtData(n3DataSet, targProps, dirty);
+						csmat.loadGtData(targProps, dirty);
 						// Note: the weights are updated considering required granularity
 						saveHints(csmat.propsWeights, optsNum, hintsName);
 						// Update propsWeights with the supervised weights of targProps
@@ -321,12 +399,15 @@ public class Statix {
 			} else nhints = loadHints(propsWeights, hints);
 			System.out.println("The number of applied brief hints: " + nhints);
 		}
+		if(!captureTypes)
+			csmat.releaseTypes();
 
 		if(tracingOn)
 			System.out.println("Property Weight for <http://www.w3.org/2002/07/owl#sameAs> = "
 				+ propsWeights.get("<http://www.w3.org/2002/07/owl#sameAs>"));
 		// Save propsWeights to the attribute
 		csmat.propsWeights = propsWeights;
+		return true;
 	}
 
 	//This function first check if it is out put results from before and will delete them before running the app and then read the directory for input dataset
@@ -338,108 +419,466 @@ public class Statix {
 	//! 	useful for the benchmarking working with ground-truth files
 	//! @param idMapFName  - optional file name to output mapping of the instance id to the name (RDF subjects)
 	//! @param dirty  - the input data is dirty and might contain duplicated triples that should be eliminated
-	public void loadDatasets(String inpfname, String lblfname, boolean filteringOn, String idMapFName, boolean dirty) throws Exception {
-		HashMap<String, Integer>  propsocrs = csmat.loadInputData(inpfname, filteringOn, idMapFName);
-		csmat.loadGtData(lblfname, propsocrs, dirty);
+	//! @param trim  - trim the per-instance properties storage after the loading
+	public void loadDatasets(String inpfname, String lblfname, boolean filteringOn, String idMapFName, boolean dirty, boolean trim) throws Exception {
+		HashMap<String, Integer>  propsocrs = csmat.loadInputData(inpfname, filteringOn, idMapFName, trim, captureTypes);
+		if(gtCacheFName != null)
+			csmat.loadGtData(GtCache.open(lblfname, gtCacheFName, dirty), propsocrs);
+		else csmat.loadGtData(lblfname, propsocrs, dirty);
+	}
+
+	//! Load the inference state without any delta, e.g. for the similarity queries
+	//!
+	//! @param stateDir  - the state directory
+	//! @param filteringOn  - filter out non-typed instances from the output by inverting their ids
+	public void loadState(String stateDir, boolean filteringOn) throws IOException {
+		csmat.loadState(Paths.get(stateDir), filteringOn);
+	}
+
+	//! Serve the similarity queries (top-k nearest neighbours) for the loaded instances
+	//!
+	//! @param endpoint  - local TCP port or "-" for the stdin/stdout
+	//! @param simkern  - similarity kernel
+	//! @param stdout  - standard output for the responses in case of the stdin endpoint
+	public void serve(String endpoint, SimilarityKernel simkern, OutputStream stdout) throws IOException {
+		SimilarityService  service = new SimilarityService(csmat, simkern);
+		if(endpoint.equals("-")) {
+			System.err.println("The similarity query service is reading the stdin");
+			service.session().serve(System.in, stdout);
+		} else service.listen(Integer.parseInt(endpoint));
+	}
+
+	//! Set the min similarity of the linked instances
+	//!
+	//! The lighter links are omitted on the graph building, the pairs of instances that can't reach
+	//! the min similarity are pruned on the evaluation if the similarity kernel supports it.
+	//! @param minsim  - min similarity, 0 means link all similar instances
+	public void setMinSimilarity(float minsim) {
+		if(!(minsim >= 0))
+			throw new IllegalArgumentException("The min similarity should be non-negative: " + minsim);
+		minSimilarity = minsim;
+	}
+
+	//! Graph sparsification planned for the memory budget
+	public static class MemoryPlan {
+		public final long  budget;  // Memory budget of the process, bytes
+		public final float  lnscut;  // Links cutting ratio E [0, 1), 0 means skip the cutting
+		public final float  minSimilarity;  // Min similarity of the linked instances
+		public final char  reduction;  // Reduction policy: n, a, m, s
+		public final double  links;  // Expected number of the links supplied to the graph
+		public final long  memory;  // Projected peak memory of the process, bytes
+
+		public MemoryPlan(long budget, float lnscut, float minSimilarity, char reduction, double links, long memory) {
+			this.budget = budget;
+			this.lnscut = lnscut;
+			this.minSimilarity = minSimilarity;
+			this.reduction = reduction;
+			this.links = links;
+			this.memory = memory;
+		}
+	}
+
+	//! Plan the graph sparsification to fit the clustering into the memory budget
+	//!
+	//! The input graph is estimated by the sampled pairs of the loaded instances. If the projected memory
+	//! exceeds the budget, the links cutting with the recommended ratio is applied unless the cut-ratio is
+	//! specified, then the min similarity is raised to the sampled similarity fitting the budget, and
+	//! the mean reduction is applied on the clustering unless the reduction policy is specified.
+	//! The planned min similarity is set for the graph building.
+	//! @param budget  - memory budget of the process, bytes
+	//! @param simkern  - similarity kernel
+	//! @param lnscut  - links cutting ratio specified by the user, negative if it should be planned
+	//! @param reduction  - reduction policy specified by the user, 0 if it should be planned
+	//! @return  - the plan
+	public MemoryPlan planMemory(long budget, SimilarityKernel simkern, float lnscut, char reduction) {
+		if(csmat == null)
+			throw new IllegalStateException("The instances should be loaded to plan the memory");
+		final Runtime  rt = Runtime.getRuntime();
+		System.gc();
+		// Note: the JVM reserves memory besides the used heap for the code, threads and collection,
+		// which is estimated if the resident memory is not available
+		final long  resident = residentMemory(false);
+		final long  jvm = resident > 0 ? resident : rt.totalMemory() - rt.freeMemory() + jvmReserve;
+		final long  avail = budget - jvm;
+		final int  rdsmarg = reductionMargin(csmat.instancesNum());
+		final GraphEstimator  est = GraphEstimator.sample(csmat, simkern, GraphEstimator.pairsDefault, 0);
+
+		float  cut = Math.max(lnscut, 0);
+		float  minsim = minSimilarity;
+		boolean  sparsified = false;
+		if(est.memory(cut, minsim, rdsmarg) > avail) {
+			sparsified = true;
+			if(lnscut < 0)
+				cut = 0.25f;
+			minsim = est.minSimilarity(avail, cut, minsim, rdsmarg);
+			if(Float.isNaN(minsim))
+				throw new IllegalStateException("The memory budget is too small for " + csmat.instancesNum()
+					+ " instances: " + (budget >> 20) + " MB, JVM: " + (jvm >> 20) + " MB");
+		}
+		if(reduction == 0)
+			reduction = sparsified ? 'm' : 'n';
+		final double  links = est.links(cut, minsim, rdsmarg);
+		memoryPlan = new MemoryPlan(budget, cut, minsim, reduction, links, jvm + est.memory(cut, minsim, rdsmarg));
+		minSimilarity = minsim;
+		System.out.println(String.format("Memory plan for the budget %d MB (JVM: %d MB, sampled pairs: %d, density: %.3g):"
+			+ " %.0f links, projected %d MB; cut-ratio: %s, min similarity: %s, reduction: %c"
+			, budget >> 20, jvm >> 20, est.pairs(), est.density(), links, memoryPlan.memory >> 20, cut, minsim, reduction));
+		return memoryPlan;
+	}
+
+	//! Estimate the input graph by the sampled pairs of the loaded instances without building it
+	//!
+	//! Reports the expected number of links (non-zero edges), the weights histogram, the links retained
+	//! by the links cutting with the projected network (.rcg) size and peak memory, and the projected
+	//! time of the graph building at the measured evaluation rate of the pairs.
+	//! @param pairsMax  - max number of the sampled pairs
+	//! @param simkern  - similarity kernel
+	//! @param lnscuts  - links cutting ratios to be estimated, 0 means skip the cutting
+	//! @param weighnode  - weigh nodes (node self-weight) besides their links
+	public void estimate(long pairsMax, SimilarityKernel simkern, float[] lnscuts, boolean weighnode) {
+		final int  instsNum = csmat.instancesNum();
+		final int  rdsmarg = reductionMargin(instsNum);
+		final long  start = System.nanoTime();
+		final GraphEstimator  est = GraphEstimator.sample(csmat, simkern, pairsMax, 0);
+		final double  pairs = (double)instsNum * (instsNum - 1) / 2;
+		final double  links = est.links(0, minSimilarity, rdsmarg);
+		System.out.println(String.format("The input graph of %d instances is estimated by %d sampled pairs in %.2f sec"
+			+ ", similarity: %s, min similarity: %s", instsNum, est.pairs(), (System.nanoTime() - start) * 1E-9
+			, simkern.name(), minSimilarity));
+		System.out.println(String.format("Similar pairs: %.4g%%, links (non-zero edges): %.0f", est.density() * 100, links));
+
+		// Weights histogram of the similar pairs
+		final float[]  sims = est.similarities();
+		final int  bins = 10;
+		final float  wmax = Math.max(1, sims.length != 0 ? sims[sims.length - 1] : 0);
+		System.out.println("Weights histogram: <range>\t<share of the similar pairs>\t<links>");
+		for(int ib = 0, beg = 0; ib < bins; ++ib) {
+			final float  lo = wmax * ib / bins;
+			final float  hi = wmax * (ib + 1) / bins;
+			int  end = beg;
+			while(end < sims.length && (sims[end] < hi || ib == bins - 1))
+				++end;
+			// Note: the links lighter than the min similarity are omitted
+			final double  blinks = est.links(0, Math.max(lo, minSimilarity), rdsmarg)
+				- (ib != bins - 1 ? est.links(0, Math.max(hi, minSimilarity), rdsmarg) : 0);
+			System.out.println(String.format("  [%.3g, %.3g%c\t%.2f%%\t%.0f", lo, hi, ib != bins - 1 ? ')' : ']'
+				, sims.length != 0 ? (end - beg) * 100. / sims.length : 0., blinks));
+			beg = end;
+		}
+
+		// Links cutting, network size and memory
+		long  idChars = 0;  // Total length of the node ids
+		for(int i = 0; i < instsNum; ++i)
+			idChars += Integer.toUnsignedString(csmat.instanceId(i)).length();
+		final double  idLen = instsNum != 0 ? (double)idChars / instsNum : 0;
+		double  weightLen = 0;  // Average length of the formatted weight
+		int  nweights = 0;
+		for(int i = GraphEstimator.lowerBound(sims, minSimilarity), step = Math.max(sims.length >> 16, 1); i < sims.length; i += step, ++nweights)
+			weightLen += Float.toString(sims[i]).length();
+		if(nweights != 0)
+			weightLen /= nweights;
+		System.out.println("Links cutting: <cut-ratio>\t<links>\t<network" + extNet + " size, MB>\t<peak memory, MB>");
+		for(float lnscut: lnscuts) {
+			final double  clinks = est.links(lnscut, minSimilarity, rdsmarg) + (weighnode ? instsNum : 0);
+			// Line: <sid>> <did>:<weight>...\n
+			final double  netSize = instsNum * (idLen + 2) + clinks * (idLen + weightLen + 2);
+			final long  resident = residentMemory(false);
+			System.out.println(String.format("  %s\t%.0f\t%.1f\t%d", lnscut, clinks, netSize / (1 << 20)
+				, ((resident > 0 ? resident : jvmReserve) + est.memory(lnscut, minSimilarity, rdsmarg)) >> 20));
+		}
+
+		// Graph building time
+		final double  rate = est.pairsRate();
+		System.out.println(String.format("Pairs evaluation: %.3g pairs/sec per thread, projected graph building: %s for %.4g pairs"
+			, rate, rate > 0 ? formatDuration(pairs / rate) : "n/a", pairs));
+	}
+
+	//! Format the duration
+	//!
+	//! @param secs  - the duration in seconds
+	//! @return  - the formatted duration: <h>:<mm>:<ss> or <secs> sec if less than a minute
+	static String formatDuration(double secs) {
+		if(secs < 60)
+			return String.format("%.1f sec", secs);
+		final long  isecs = Math.round(secs);
+		return String.format("%d:%02d:%02d", isecs / 3600, isecs / 60 % 60, isecs % 60);
+	}
+
+	//! Resident memory of the process
+	//!
+	//! @param peak  - take the peak resident memory instead of the current one
+	//! @return  - the memory in bytes, -1 if it is not available on this platform
+	public static long residentMemory(boolean peak) {
+		// Format: VmRSS:	  123456 kB
+		final String  field = peak ? "VmHWM:" : "VmRSS:";
+		try(Stream<String>  lines = Files.lines(Paths.get("/proc/self/status"))) {
+			return lines.filter(ln -> ln.startsWith(field)).findFirst()
+				.map(ln -> Long.parseLong(ln.substring(field.length()).trim().split("\\s+")[0]) << 10).orElse(-1L);
+		} catch(IOException | UncheckedIOException | NumberFormatException err) {
+			return -1;
+		}
+	}
+
+	//! Weight of the link between the instances
+	//!
+	//! @return  - the similarity of the instances, 0 if it is below the min similarity
+	private float linkWeight(int iinst1, int iinst2, SimilarityKernel simkern) {
+		final double  sim = csmat.similarity(iinst1, iinst2, simkern, minSimilarity);
+		return minSimilarity > 0 && sim < minSimilarity ? 0 : (float)sim;
+	}
+
+	//! Retain the loaded instances after the clustering, e.g. to build the centroids classifier
+	//!
+	//! @param retain  - whether to retain the instances instead of releasing them before the clustering
+	public void retainInstances(boolean retain) {
+		retainInstances = retain;
+	}
+
+	//! Retain only the names and the captured types of the loaded instances after the clustering, e.g. to label the clusters
+	//!
+	//! @param retain  - whether to retain the names and types releasing the properties and weights before the clustering
+	public void retainNames(boolean retain) {
+		retainNames = retain;
+	}
+
+	//! Capture the types of the instances on the input dataset loading to label the clusters
+	//!
+	//! @param capture  - whether to capture the types, which should be set before the loading
+	public void captureTypes(boolean capture) {
+		captureTypes = capture;
+	}
+
+	//! Cache the ground-truth dataset compacted for the property weights evaluation
+	//!
+	//! @param cacheFName  - the cache file reused while the ground-truth dataset is not changed, null to disable the caching
+	public void gtCache(String cacheFName) {
+		gtCacheFName = cacheFName;
+	}
+
+	//! Save the clusters labeled by the names of their members and the most frequent type of the members
+	//!
+	//! The members are resolved in parallel chunks from the retained instances names, so the clusters
+	//! do not need to be joined with the id map.
+	//! @param clsFName  - clusters of the loaded instances in the .cnl format, the ids of the filtered out
+	//! 	members (having the high bit set) are resolved as well, the shares of the members are omitted
+	//! @param labeledFName  - the output file having the line per cluster: <type>\t<subject1> <subject2> ...,
+	//! 	where the type is the most frequent #type of the members in the input dataset ('-' if the members
+	//! 	are not typed or the types were not captured on the loading); the header comments are retained
+	public void saveLabeled(String clsFName, String labeledFName) throws IOException {
+		if(csmat == null)
+			throw new IllegalStateException("The loaded instances are released, their names should be retained for the labeling");
+		final SimilarityMatix  csmat = this.csmat;
+		final int  instsNum = csmat.instancesNum();
+		final int[]  tcounts = csmat.typesCaptured() ? new int[csmat.typesNum()] : null;  // Occurrences of the types in the cluster
+		final IdsList  touched = new IdsList();  // Types of the cluster
+		final Pattern  space = Pattern.compile("\\s+");
+		int  clsnum = 0;
+		try(
+			BufferedReader  reader = Files.newBufferedReader(Paths.get(clsFName));
+			BytesWriter  labeledf = new BytesWriter(labeledFName);
+		) {
+			String  line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty())
+					continue;
+				if(line.startsWith("#")) {
+					labeledf.writeString(line);
+					labeledf.writeChar('\n');
+					continue;
+				}
+				// Resolve the members
+				final String[]  members = space.split(line);
+				final int[]  insts = new int[members.length];
+				final byte[][]  chunks = new byte[(members.length + labelChunk - 1) / labelChunk][];
+				IntStream.range(0, chunks.length).parallel().forEach(ic -> {
+					ByteArrayOutputStream  buf = new ByteArrayOutputStream();
+					for(int i = ic * labelChunk, end = Math.min(i + labelChunk, members.length); i < end; ++i) {
+						final int  idel = members[i].indexOf(':');
+						final int  iinst = Integer.parseUnsignedInt(idel != -1 ? members[i].substring(0, idel) : members[i]) & ~(1 << 31);
+						if(iinst >= instsNum)
+							throw new IllegalArgumentException("The cluster member is out of the loaded instances: " + members[i]);
+						insts[i] = iinst;
+						if(i != 0)
+							buf.write(' ');
+						try {
+							csmat.writeInstanceName(iinst, buf);
+						} catch(IOException err) {
+							throw new UncheckedIOException(err);
+						}
+					}
+					chunks[ic] = buf.toByteArray();
+				});
+				// Identify the most frequent type of the members, the lexicographically smallest on the tie
+				String  type = "-";
+				if(tcounts != null) {
+					int  tbest = -1;
+					for(int iinst: insts)
+						for(int k = csmat.typesBegin(iinst), end = csmat.typesEnd(iinst); k < end; ++k) {
+							final int  t = csmat.type(k);
+							// Omit the duplicated types of the instance
+							boolean  dup = false;
+							for(int kp = csmat.typesBegin(iinst); kp < k && !dup; ++kp)
+								dup = csmat.type(kp) == t;
+							if(dup)
+								continue;
+							if(tcounts[t]++ == 0)
+								touched.add(t);
+							if(tbest == -1 || tcounts[t] > tcounts[tbest] || (tcounts[t] == tcounts[tbest]
+							&& csmat.typeName(t).compareTo(csmat.typeName(tbest)) < 0))
+								tbest = t;
+						}
+					if(tbest != -1)
+						type = csmat.typeName(tbest);
+					for(int i = 0; i < touched.size; ++i)
+						tcounts[touched.ids[i]] = 0;
+					touched.size = 0;
+				}
+				labeledf.writeString(type);
+				labeledf.writeChar('\t');
+				for(byte[] chunk: chunks)
+					labeledf.write(chunk);
+				labeledf.writeChar('\n');
+				++clsnum;
+			}
+		}
+		System.out.println(clsnum + " clusters are labeled to " + labeledFName);
+	}
+
+	//! Build the centroids classifier from the clusters of the loaded instances and save it
+	//!
+	//! @param clsFName  - clusters of the loaded instances in the .cnl format (inferred types)
+	//! @param centroidsFName  - the classifier file to be formed
+	//! @param simkern  - similarity kernel
+	public void saveCentroids(String clsFName, String centroidsFName, SimilarityKernel simkern) throws IOException {
+		if(csmat == null)
+			throw new IllegalStateException("The loaded instances are released, they should be retained for the centroids");
+		CentroidClassifier.build(csmat, clsFName, simkern).save(Paths.get(centroidsFName));
+	}
+
+	//! Assign the instances (subjects) of the dataset to the clusters by the centroids classifier
+	//!
+	//! @param centroidsFName  - the classifier file formed by saveCentroids()
+	//! @param n3DataSet  - N3/quad RDF dataset of the new instances
+	//! @param outFName  - output file of the assigned clusters in the tab separated format: <subject> <cluster> <similarity>
+	public static void assign(String centroidsFName, String n3DataSet, String outFName) throws IOException {
+		CentroidClassifier  classifier = CentroidClassifier.load(Paths.get(centroidsFName));
+		System.out.println("The centroids classifier of " + classifier.size() + " clusters is loaded, similarity: "
+			+ classifier.kernel().name());
+		classifier.assign(n3DataSet, outFName);
+	}
+
+	//! Set the kernel of the pairwise similarity evaluation
+	//!
+	//! @param type  - kernel type: auto, scalar, vector or verify
+	public void setKernel(String type) {
+		csmat.setKernel(type);
+	}
+
+	//! Evaluate similarity links of all instances if required and save the inference state
+	//! for the subsequent incremental runs
+	//!
+	//! @param stateDir  - the state directory
+	//! @param simkern  - similarity kernel
+	public void saveState(String stateDir, SimilarityKernel simkern) throws IOException {
+		if(slinks == null)
+			slinks = SimilarityLinks.evaluate(csmat, simkern);
+		final Path  dir = Paths.get(stateDir);
+		csmat.saveState(dir);
+		final Path  tmp = dir.resolve(stateLinks + ".tmp");
+		slinks.save(tmp);
+		SimilarityMatix.replaceFile(tmp, dir.resolve(stateLinks));
+		System.out.println("The inference state is saved to: " + stateDir);
+	}
+
+	//! Load the inference state and apply the delta (appended triples) to it
+	//! reevaluating only the similarity links of the affected instances
+	//!
+	//! @param stateDir  - the state directory formed by saveState()
+	//! @param n3Delta  - file name of the N3/quad RDF triples appended to the dataset
+	//! @param filteringOn  - filter out non-typed instances from the output by inverting their ids
+	//! @param idMapFName  - optional file name to output mapping of the instance id to the name (RDF subjects)
+	//! @param weps  - relative tolerance of the automatically evaluated property weights
+	//! @param simkern  - similarity kernel
+	public void loadState(String stateDir, String n3Delta, boolean filteringOn, String idMapFName, float weps, SimilarityKernel simkern) throws IOException {
+		final Path  dir = Paths.get(stateDir);
+		csmat.loadState(dir, filteringOn);
+		slinks = SimilarityLinks.load(dir.resolve(stateLinks));
+		if(!slinks.kernel().equals(simkern.name()))
+			throw new IllegalArgumentException("The similarity kernel should be the same as in the state: "
+				+ slinks.kernel());
+		final BitSet  affected = csmat.applyDelta(n3Delta, weps);
+		slinks.update(csmat, simkern, affected);
+		if(idMapFName != null)
+			csmat.saveIdMap(idMapFName);
+	}
+
+	//! Minimal links number of the instance to apply the raw links reduction (cutting)
+	//!
+	//! Do not reduce small number of links (1 + var results in E [7, ~20 links])
+	//! @param instsNum  - the number of instances
+	public static int reductionMargin(int instsNum) {
+		return (int)Math.round(7 + Math.pow(instsNum, 1.f - Math.exp(-2.f)));  // 0.86466
 	}
 
 	//! Build the graph to be clustered
 	//!
 	//! @param weighnode  - weigh nodes (node self-weight) besides their links
-	//! @param jaccard  - use (weighted) Jaccard instead of the Cosine similarity
+	//! @param simkern  - similarity kernel
 	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
 	//! @return the input graph for the clustering
-	protected Graph buildGraph(final boolean weighnode, final boolean jaccard, final float lnscut) {
-		final Set<String>  instances = csmat.instances();
-		final int  instsNum = instances.size();
+	protected Graph buildGraph(final boolean weighnode, final SimilarityKernel simkern, final float lnscut) {
+		final int  instsNum = csmat.instancesNum();
+		graphLinks = 0;
 		Graph  gr = new Graph(instsNum);
 		// ATTENTION: filtering out nodes have negative ids, so the nodes can't be preallocated in advance.
 		//gr.addNodes(instsNum, 0);  // Create all nodes to avoid dedicated creation of the stand-alone nodes
 		InpLinks  grInpLinks = new InpLinks();
 		InpLinks  rdsInpLinks = lnscut > 0 ? new InpLinks() : null;  // Reducing links
-		// Minimal links number of the instance to apply the raw links reduction
-		// Do not reduce small number of links (1 + var results in E [7, ~20 links])
-		final int  rdsmarg = (int)Math.round(7 + Math.pow(instances.size(), 1.f - Math.exp(-2.f)));  // 0.86466
+		final int  rdsmarg = reductionMargin(instsNum);
 
 		HashSet<Long>  nids = new HashSet<Long>();  // Stand alone node ids
-		// Note: Java iterators are not copyable and there is not way to get iterator to the custom item,
-		// so even for the symmetric matrix all iterations should be done
-		int i = 0;
-		for (String inst1: instances) {
-			++i;
-			final long  sid = csmat.instanceId(inst1);  // Source node id
-			int j = 0;
+		// Back links required for the links cutting, each pair is evaluated once
+		PendingLinks  pending = lnscut > 0 ? new PendingLinks(instsNum) : null;
+		// Note: instances are indexed in the order of their ids
+		for(int i = 0; i < instsNum; ++i) {
+			final long  sid = csmat.instanceId(i);  // Source node id
 			float  wmin = Float.MAX_VALUE;  // Min weight of the instance links
 			double  wsum = 0;  // Sum of the instance links, used exclusively for the links reduction
-			for (String inst2: instances) {
-				if(++j > i) {  // Skip back links (which should have the same weight anyway) and the self-link. Possible only if edges are used (raw links reduction is disabled)
-					final long  did = csmat.instanceId(inst2);
-					final float  weight = (float)csmat.similarity(inst1, inst2, jaccard);
-					if(weight == 0) {
-						nids.add(did);
-						//gr.addNodes(1, did);  // Consider stand-alone nodes
-						continue;
-					}
-					//System.out.print(" " + did + ":" + weight);
-					//if(weight <= 0 || Float.isNaN(weight))
-					//	throw new IllegalArgumentException("Weight for #(" + inst1 + ", " + inst2 + ") is out of range: " + weight);
-
-					grInpLinks.add(new InpLink(did, weight));
-					// Update weights statistics
-					wsum += weight;
-					if(wmin > weight)
-						wmin = weight;
-				} else if(lnscut > 0 && j != i) {
-					final long  did = csmat.instanceId(inst2);
-					final float  weight = (float)csmat.similarity(inst1, inst2, jaccard);
-					if(weight == 0) {
-						nids.add(did);
-						//gr.addNodes(1, did);  // Consider stand-alone nodes
-						continue;
-					}
-					grInpLinks.add(new InpLink(did, weight));
-					// Update weights statistics
-					wsum += weight;
-					if(wmin > weight)
-						wmin = weight;
-				}
-			}
-			// Add the self-link if required (threated as an edge, i.e. doubled internally)
-			if(weighnode) {
-				// Note: Typically the self-weight is 1
-				final float  weight = (float)csmat.similarity(inst1, inst1, jaccard);
-				if(weight != 0) {
-					if(lnscut > 0) {
-						// Update weights statistics
-						// ATTENTION: do not consider self-weight for the links weights margin evaluation
-						wsum += wsum / grInpLinks.size();
-						//wsum += weight;
-						if(wmin > weight)
-							wmin = weight;
-					}
-					grInpLinks.add(new InpLink(sid, weight));
-				} else nids.add(sid);  // gr.addNodes(1, sid);  // Consider stand-alone nodes
+			// Take the back links evaluated by the preceding instances, which are ordered
+			if(pending != null) {
+				for(int k = 0; k < pending.size(i); ++k)
+					grInpLinks.add(new InpLink(csmat.instanceId(pending.id(i, k)), pending.weight(i, k)));
+				wsum = pending.wsums[i];
+				wmin = pending.wmins[i];
+				pending.release(i);
 			}
-			// Perform raw reduction of the links if required
-			InpLinks  links = rdsInpLinks;
-			if(lnscut > 0 && grInpLinks.size() >= rdsmarg) {
-				// Reducing weight margin is half of the average
-				final float  wmarg = wmin + (float)(wsum / grInpLinks.size() - wmin) * lnscut;
-				if(wmarg > wmin) {
-					for(InpLink ln: grInpLinks)
-						if(ln.getWeight() >= wmarg)
-							links.add(ln);
-					if(links.isEmpty())
-						throw new IllegalStateException("Links should be formed, wmarg: " + wmarg);  // String.valueOf()
-					grInpLinks.clear();
+			for(int j = i + 1; j < instsNum; ++j) {  // Skip back links (which should have the same weight anyway) and the self-link
+				final long  did = csmat.instanceId(j);
+				final float  weight = linkWeight(i, j, simkern);
+				if(weight == 0) {
+					nids.add(did);
+					// The back link would be omitted as well
+					if(pending != null)
+						nids.add(sid);
+					//gr.addNodes(1, did);  // Consider stand-alone nodes
+					continue;
 				}
+				//System.out.print(" " + did + ":" + weight);
+				//if(weight <= 0 || Float.isNaN(weight))
+				//	throw new IllegalArgumentException("Weight for #(" + inst1 + ", " + inst2 + ") is out of range: " + weight);
+
+				grInpLinks.add(new InpLink(did, weight));
+				// Update weights statistics
+				wsum += weight;
+				if(wmin > weight)
+					wmin = weight;
+				if(pending != null)
+					pending.append(j, i, weight);
 			}
-			if(lnscut <= 0 || !grInpLinks.isEmpty())
-				links = grInpLinks;
-			// Note: the matrix is always symmetric, just for the enabled links cutting the duplicated edges
-			// may be saved and should be omitted (internally by the clustering lib)
-			gr.addNodeAndEdges(sid, links);
-			links.clear();
+			// Note: Typically the self-weight is 1
+			graphLinks += addNodeLinks(gr, sid, grInpLinks, rdsInpLinks, wmin, wsum, weighnode ? (float)csmat.similarity(i, i, simkern) : 0
+				, lnscut, rdsmarg);
 		}
 		// Add missed nids to the graph
 		if(!nids.isEmpty()) {
@@ -450,31 +889,232 @@ public class Statix {
 			gr.addNodes(dnids);
 		}
 		// Hint system to collect the released memory used for the graph construction
-		if(instances.size() >= 5E3)
+		if(instsNum >= 5E3)
 			System.gc();
 
 		System.err.println("The input graph is formed");
 		return gr;
 	}
 	
+	//! Build the graph to be clustered from the evaluated similarity links
+	//!
+	//! @param slinks  - similarity links of the instances
+	//! @param weighnode  - weigh nodes (node self-weight) besides their links
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @return the input graph for the clustering
+	protected Graph buildGraph(SimilarityLinks slinks, final boolean weighnode, final float lnscut) {
+		final int  instsNum = slinks.size();
+		graphLinks = 0;
+		Graph  gr = new Graph(instsNum);
+		InpLinks  grInpLinks = new InpLinks();
+		InpLinks  rdsInpLinks = lnscut > 0 ? new InpLinks() : null;  // Reducing links
+		final int  rdsmarg = reductionMargin(instsNum);
+
+		// Note: the links are ordered by the destination instance index,
+		// all nodes are added including the stand-alone ones
+		for(int i = 0; i < instsNum; ++i) {
+			final long  sid = csmat.instanceId(i);  // Source node id
+			float  wmin = Float.MAX_VALUE;  // Min weight of the instance links
+			double  wsum = 0;  // Sum of the instance links, used exclusively for the links reduction
+			for(int k = 0; k < slinks.degree(i); ++k) {
+				final int  j = slinks.id(i, k);
+				// Back links are required only for the links cutting
+				if(j < i && lnscut <= 0)
+					continue;
+				final float  weight = slinks.weight(i, k);
+				if(weight < minSimilarity)
+					continue;
+				grInpLinks.add(new InpLink(csmat.instanceId(j), weight));
+				// Update weights statistics
+				wsum += weight;
+				if(wmin > weight)
+					wmin = weight;
+			}
+			graphLinks += addNodeLinks(gr, sid, grInpLinks, rdsInpLinks, wmin, wsum, weighnode ? 1 : 0, lnscut, rdsmarg);
+		}
+		System.err.println("The input graph is formed from the similarity links");
+		return gr;
+	}
+
+	//! Build the graph to be clustered from the evaluated upper-triangular similarity matrix
+	//!
+	//! @param smat  - similarity matrix of the instances pruned by the min similarity
+	//! @param back  - back links (lower triangle) as {offsets, sources, entries}, required only for the links cutting
+	//! @param weighnode  - weigh nodes (node self-weight) besides their links
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @return the input graph for the clustering
+	protected Graph buildGraph(SparseSimilarity smat, int[][] back, final boolean weighnode, final float lnscut) {
+		final int  instsNum = smat.size();
+		if(lnscut > 0 && back == null)
+			throw new IllegalArgumentException("The back links are required for the links cutting");
+		graphLinks = 0;
+		Graph  gr = new Graph(instsNum);
+		InpLinks  grInpLinks = new InpLinks();
+		InpLinks  rdsInpLinks = lnscut > 0 ? new InpLinks() : null;  // Reducing links
+		final int  rdsmarg = reductionMargin(instsNum);
+
+		// Note: the links are ordered by the destination instance index (back links precede the stored ones),
+		// all nodes are added including the stand-alone ones
+		for(int i = 0; i < instsNum; ++i) {
+			final long  sid = csmat.instanceId(i);  // Source node id
+			float  wmin = Float.MAX_VALUE;  // Min weight of the instance links
+			double  wsum = 0;  // Sum of the instance links, used exclusively for the links reduction
+			// Back links are required only for the links cutting
+			if(lnscut > 0)
+				for(int k = back[0][i]; k < back[0][i + 1]; ++k) {
+					final float  weight = smat.weight(back[2][k]);
+					grInpLinks.add(new InpLink(csmat.instanceId(back[1][k]), weight));
+					wsum += weight;
+					if(wmin > weight)
+						wmin = weight;
+				}
+			for(int pos = smat.begin(i); pos < smat.end(i); ++pos) {
+				final float  weight = smat.weight(pos);
+				grInpLinks.add(new InpLink(csmat.instanceId(smat.col(pos)), weight));
+				// Update weights statistics
+				wsum += weight;
+				if(wmin > weight)
+					wmin = weight;
+			}
+			graphLinks += addNodeLinks(gr, sid, grInpLinks, rdsInpLinks, wmin, wsum, weighnode ? 1 : 0, lnscut, rdsmarg);
+		}
+		System.err.println("The input graph is formed from the similarity matrix");
+		return gr;
+	}
+
+	//! Back links (lower triangle) of the upper-triangular similarity matrix
+	//!
+	//! @param smat  - similarity matrix
+	//! @return  - {offsets, sources, entries}, where the sources of each row are ordered by the index
+	//! 	and the entries are the positions of the respective similarities in smat
+	private static int[][] backLinks(SparseSimilarity smat) {
+		final int  instsNum = smat.size();
+		final int[]  offsets = new int[instsNum + 1];
+		for(int pos = 0; pos < smat.entries(); ++pos)
+			++offsets[smat.col(pos) + 1];
+		for(int i = 0; i < instsNum; ++i)
+			offsets[i + 1] += offsets[i];
+		final int[]  fill = Arrays.copyOf(offsets, instsNum);
+		final int[]  sources = new int[smat.entries()];
+		final int[]  entries = new int[smat.entries()];
+		for(int i = 0; i < instsNum; ++i)
+			for(int pos = smat.begin(i); pos < smat.end(i); ++pos) {
+				final int  k = fill[smat.col(pos)]++;
+				sources[k] = i;
+				entries[k] = pos;
+			}
+		return new int[][] {offsets, sources, entries};
+	}
+
+	//! Add the node with its links to the graph applying the self-link and the links cutting
+	//!
+	//! @param gr  - the graph
+	//! @param sid  - source node id
+	//! @param grInpLinks  - links of the node, cleared on return
+	//! @param rdsInpLinks  - reducing links buffer, used only if lnscut > 0
+	//! @param wmin  - min weight of the node links
+	//! @param wsum  - sum of the node links weights
+	//! @param selfWeight  - self-weight of the node, 0 means the node is not weighted
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
+	//! @param rdsmarg  - minimal number of the node links to apply the raw links reduction
+	//! @return  - the number of supplied links excluding the self-link
+	private static int addNodeLinks(Graph gr, long sid, InpLinks grInpLinks, InpLinks rdsInpLinks
+	, float wmin, double wsum, float selfWeight, float lnscut, int rdsmarg) {
+		// Add the self-link if required (threated as an edge, i.e. doubled internally)
+		if(selfWeight != 0) {
+			if(lnscut > 0) {
+				// Update weights statistics
+				// ATTENTION: do not consider self-weight for the links weights margin evaluation
+				wsum += wsum / grInpLinks.size();
+				//wsum += weight;
+				if(wmin > selfWeight)
+					wmin = selfWeight;
+			}
+			grInpLinks.add(new InpLink(sid, selfWeight));
+		}
+		// Perform raw reduction of the links if required
+		InpLinks  links = rdsInpLinks;
+		if(lnscut > 0 && grInpLinks.size() >= rdsmarg) {
+			// Reducing weight margin is half of the average
+			final float  wmarg = wmin + (float)(wsum / grInpLinks.size() - wmin) * lnscut;
+			if(wmarg > wmin) {
+				for(InpLink ln: grInpLinks)
+					if(ln.getWeight() >= wmarg)
+						links.add(ln);
+				if(links.isEmpty())
+					throw new IllegalStateException("Links should be formed, wmarg: " + wmarg);  // String.valueOf()
+				grInpLinks.clear();
+			}
+		}
+		if(lnscut <= 0 || !grInpLinks.isEmpty())
+			links = grInpLinks;
+		// Note: the matrix is always symmetric, just for the enabled links cutting the duplicated edges
+		// may be saved and should be omitted (internally by the clustering lib)
+		gr.addNodeAndEdges(sid, links);
+		final int  supplied = links.size() - (selfWeight != 0 ? 1 : 0);
+		links.clear();
+		return supplied;
+	}
+	
 	//! Save the clustering input network to the specified file
 	//!
 	//! @param outputPath  - the network file name
 	//! @param weighnode  - weigh nodes (node self-weight) besides their links
-	//! @param jaccard  - use (weighted) Jaccard instead of the Cosine similarity
+	//! @param simkern  - similarity kernel
 	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting
-	public void saveNet(String outputPath, final boolean weighnode, final boolean jaccard, final float lnscut) throws IOException {
+	public void saveNet(String outputPath, final boolean weighnode, final SimilarityKernel simkern, final float lnscut) throws IOException {
+		saveNet(outputPath, weighnode, simkern, lnscut, 1, 1);
+	}
+
+	//! Rows of the partition of the upper-triangular similarity matrix
+	//!
+	//! The consecutive rows are split to have about the same number of the evaluated pairs in each partition.
+	//! @param instsNum  - the number of instances (rows)
+	//! @param part  - partition number E [1, parts]
+	//! @param parts  - the number of partitions
+	//! @return  - begin and end of the partition rows
+	public static int[] partitionRows(int instsNum, int part, int parts) {
+		if(parts < 1 || part < 1 || part > parts)
+			throw new IllegalArgumentException("The partition is out of range: " + part + "/" + parts);
+		final double  pairs = (double)instsNum * (instsNum - 1) / 2;
+		final int[]  rows = new int[2];
+		// The number of pairs of the rows preceding the row i: i * (n - 1) - i * (i - 1) / 2
+		for(int ib = 0; ib < 2; ++ib) {
+			final double  bound = pairs * (part - 1 + ib) / parts;
+			int  i = ib != 0 ? rows[0] : 0;
+			while(i < instsNum && (double)i * (instsNum - 1) - (double)i * (i - 1) / 2 < bound)
+				++i;
+			rows[ib] = ib != 0 && part == parts ? instsNum : i;
+		}
+		return rows;
+	}
+
+	//! Save the partition of the clustering input network to the specified file
+	//!
+	//! The partial networks of all partitions are merged by buildGraph(String[]).
+	//! @param outputPath  - the network file name
+	//! @param weighnode  - weigh nodes (node self-weight) besides their links
+	//! @param simkern  - similarity kernel
+	//! @param lnscut  - links cutting ratio E [0, 1), 0 means skip the cutting, requires a single partition
+	//! @param part  - partition number E [1, parts]
+	//! @param parts  - the number of partitions, 1 means the whole network
+	public void saveNet(String outputPath, final boolean weighnode, final SimilarityKernel simkern, final float lnscut
+	, int part, int parts) throws IOException {
+		if(parts != 1 && lnscut > 0)
+			throw new IllegalArgumentException("The links cutting requires the whole rows and is not applicable for the partitions");
 		try(
 			BufferedWriter  netf = Files.newBufferedWriter(Paths.get(outputPath));  // new BufferedWriter(new FileWriter(idMapFName))
 		) {
-			final Set<String>  instances = csmat.instances();
-			final int  instsNum = instances.size();
+			final int  instsNum = csmat.instancesNum();
+			final int[]  rows = partitionRows(instsNum, part, parts);
 
 			// Write .rcg header
 			netf.write("/Graph weighted:1 validated:1\n/Nodes " + instsNum  // ATTENTION: the starting id should not be specified if the filtering is enabled
 				// Note: the matrix is always symmetric, just for the enabled links cutting the duplicated edges may be saved and should be omitted
 				//+ "\n/" + (rawrds ? "Arcs" : "Edges") + "\n"
 				+ "\n/Edges\n");
+			if(parts != 1)
+				netf.write("# Partition " + part + "/" + parts + ", rows [" + rows[0] + ", " + rows[1] + ")\n");
 			if(lnscut > 0) {
 				netf.write("# Note: duplicated edges may exist and should be omitted\n");
 				if(lnscut >= 1)
@@ -482,58 +1122,52 @@ public class Statix {
 			}
 			InpLinks  grInpLinks = lnscut > 0 ? new InpLinks() : null;
 			InpLinks  rdsInpLinks = lnscut > 0 ? new InpLinks() : null;  // Reducing links
-			// Minimal links number of the instance to apply the raw links reduction
-			// Do not reduce small number of links (1 + var results in E [7, ~20 links])
-			final int  rdsmarg = (int)Math.round(7 + Math.pow(instances.size(), 1.f - Math.exp(-2.f)));  // 0.86466
-
-			// Note: Java iterators are not copyable and there is not way to get iterator to the custom item,
-			// so even for the symmetric matrix all iterations should be done
-			int i = 0;
-			for (String inst1: instances) {
-				++i;
-				final int  sid = csmat.instanceId(inst1);  // Source node id
+			final int  rdsmarg = reductionMargin(instsNum);
+
+			// Back links required for the links cutting, each pair is evaluated once
+			PendingLinks  pending = lnscut > 0 ? new PendingLinks(instsNum) : null;
+
+			// Note: instances are indexed in the order of their ids
+			for(int i = rows[0]; i < rows[1]; ++i) {
+				final int  sid = csmat.instanceId(i);  // Source node id
 				boolean  initial = true;  // First item in the line
 				float  wmin = Float.MAX_VALUE;  // Min weight of the instance links
 				double  wsum = 0;  // Sum of the instance links, used exclusively for the links reduction
-				int  j = 0;
-				for (String inst2: instances) {
-					if(++j > i) {  // Skip back links if edges are used (raw links reduction is disabled)
-						final float  weight = (float)csmat.similarity(inst1, inst2, jaccard);
-						if(weight == 0)
-							continue;
-						final int  did = csmat.instanceId(inst2);
-						//System.out.print(" " + did + ":" + weight);
-						//if(weight <= 0 || Float.isNaN(weight))
-						//	throw new IllegalArgumentException("Weight for #(" + inst1 + ", " + inst2 + ") is out of range: " + weight);
-						if(lnscut > 0) {
-							grInpLinks.add(new InpLink(did, weight));
-							// Update weights statistics
-							wsum += weight;
-							if(wmin > weight)
-								wmin = weight;
-						} else {
-							if(initial) {
-								initial = false;
-								netf.write(Integer.toUnsignedString(sid) + ">");
-							}
-							netf.write(" " + Integer.toUnsignedString(did) + ":" + weight);
-						}
-					} else if(lnscut > 0 && j != i) {
-						final float  weight = (float)csmat.similarity(inst1, inst2, jaccard);
-						if(weight == 0)
-							continue;
-						final long did = csmat.instanceId(inst2);
+				// Take the back links evaluated by the preceding instances, which are ordered
+				if(pending != null) {
+					for(int k = 0; k < pending.size(i); ++k)
+						grInpLinks.add(new InpLink(csmat.instanceId(pending.id(i, k)), pending.weight(i, k)));
+					wsum = pending.wsums[i];
+					wmin = pending.wmins[i];
+					pending.release(i);
+				}
+				for(int j = i + 1; j < instsNum; ++j) {  // Skip back links if edges are used (raw links reduction is disabled)
+					final float  weight = linkWeight(i, j, simkern);
+					if(weight == 0)
+						continue;
+					final int  did = csmat.instanceId(j);
+					//System.out.print(" " + did + ":" + weight);
+					//if(weight <= 0 || Float.isNaN(weight))
+					//	throw new IllegalArgumentException("Weight for #(" + inst1 + ", " + inst2 + ") is out of range: " + weight);
+					if(pending != null) {
 						grInpLinks.add(new InpLink(did, weight));
 						// Update weights statistics
 						wsum += weight;
 						if(wmin > weight)
 							wmin = weight;
+						pending.append(j, i, weight);
+					} else {
+						if(initial) {
+							initial = false;
+							netf.write(Integer.toUnsignedString(sid) + ">");
+						}
+						netf.write(" " + Integer.toUnsignedString(did) + ":" + weight);
 					}
 				}
 				// Add the self-link if required (threated as an edge, i.e. doubled internally)
 				if(weighnode) {
 					// Note: Typically the self-weight is 1
-					final float  weight = (float)csmat.similarity(inst1, inst1, jaccard);
+					final float  weight = (float)csmat.similarity(i, i, simkern);
 					if(weight != 0) {
 						if(lnscut > 0) {
 							// Update weights statistics
@@ -589,13 +1223,170 @@ public class Statix {
 		}
 	}
 
-	public void cluster(String outputPath, float scale, boolean multiLev, float lnscut, char reduction, boolean reduceByWeight, boolean filteringOn, boolean weighnode, boolean jaccard) throws Exception {
+	//! Build the graph from the partial networks formed by saveNet() for all partitions
+	//!
+	//! @param netfiles  - the partial networks in any order
+	//! @return the input graph for the clustering, which is the same as formed by buildGraph()
+	//! 	without the links cutting
+	protected static Graph buildGraph(String[] netfiles) throws IOException {
+		// Order the partitions validating their headers
+		final String[]  parts = new String[netfiles.length];
+		int  instsNum = -1;
+		int  rowsEnd = 0;
+		for(String netfile: netfiles) {
+			int  nodes = -1;
+			Matcher  header = null;
+			try(BufferedReader  reader = Files.newBufferedReader(Paths.get(netfile))) {
+				String  line;
+				while((line = reader.readLine()) != null && (line.startsWith("/") || line.startsWith("#"))) {
+					if(line.startsWith("/Nodes "))
+						nodes = Integer.parseInt(line.substring("/Nodes ".length()).trim());
+					else if(header == null && partitionHeader.matcher(line).matches()) {
+						header = partitionHeader.matcher(line);
+						header.matches();
+					}
+				}
+			}
+			if(header == null || nodes == -1)
+				throw new IllegalArgumentException("The file is not a partial network: " + netfile);
+			final int  part = Integer.parseInt(header.group(1));
+			if(Integer.parseInt(header.group(2)) != netfiles.length || part < 1 || part > netfiles.length
+			|| parts[part - 1] != null || (instsNum != -1 && nodes != instsNum))
+				throw new IllegalArgumentException("The partial network does not match the others: " + netfile);
+			final int[]  rows = partitionRows(nodes, part, netfiles.length);
+			if(rows[0] != Integer.parseInt(header.group(3)) || rows[1] != Integer.parseInt(header.group(4)))
+				throw new IllegalArgumentException("The rows of the partial network are invalid: " + netfile);
+			instsNum = nodes;
+			parts[part - 1] = netfile;
+		}
+
+		// Form the graph in order of the rows
+		Graph  gr = new Graph(instsNum);
+		InpLinks  grInpLinks = new InpLinks();
+		final Pattern  space = Pattern.compile(" ");
+		int  rows = 0;
+		for(String netfile: parts) {
+			try(BufferedReader  reader = Files.newBufferedReader(Paths.get(netfile))) {
+				String  line;
+				while((line = reader.readLine()) != null) {
+					if(line.isEmpty() || line.startsWith("/") || line.startsWith("#"))
+						continue;
+					final int  idel = line.indexOf('>');
+					if(idel == -1)
+						throw new IllegalArgumentException("The links of the node are expected: " + line);
+					// Note: the ids having the filtering mask are negative
+					final long  sid = Integer.parseUnsignedInt(line.substring(0, idel));
+					if(idel + 1 < line.length())
+						for(String link: space.split(line.substring(idel + 2))) {
+							final int  iw = link.indexOf(':');
+							grInpLinks.add(new InpLink(Integer.parseUnsignedInt(link.substring(0, iw))
+								, Float.parseFloat(link.substring(iw + 1))));
+						}
+					gr.addNodeAndEdges(sid, grInpLinks);
+					grInpLinks.clear();
+					++rows;
+				}
+			}
+		}
+		if(rows != instsNum)
+			throw new IllegalArgumentException("The partial networks do not cover all nodes: " + rows + " of " + instsNum);
+		System.err.println("The input graph is formed from " + parts.length + " partial networks");
+		return gr;
+	}
+
+	public void cluster(String outputPath, float scale, boolean multiLev, float lnscut, char reduction, boolean reduceByWeight, boolean filteringOn, boolean weighnode, SimilarityKernel simkern) throws Exception {
 		System.err.println("Calling the clustering lib...");
 		// Apply raw links reduction for the medium and severe reduction policy to reduce consumed memory
 		// Apply additional raw links reduction on preprocessing for the severe reduction policy
-		Graph gr = buildGraph(weighnode, jaccard, lnscut);
+		Graph gr = slinks != null ? buildGraph(slinks, weighnode, lnscut) : buildGraph(weighnode, simkern, lnscut);
 		// Cosin similarity matrix is not required any more, release it
-		csmat = null;
+		if(!retainInstances) {
+			if(retainNames)
+				csmat.releaseVectors();
+			else csmat = null;
+		}
+		slinks = null;
+		cluster(gr, outputPath, scale, multiLev, reduction, reduceByWeight, filteringOn);
+		if(memoryPlan != null) {
+			final long  peak = residentMemory(true);
+			System.out.println(String.format("Memory plan check: %.0f links expected, %d supplied; projected %d MB, peak resident %s"
+				, memoryPlan.links, graphLinks, memoryPlan.memory >> 20, peak >= 0 ? (peak >> 20) + " MB" : "n/a"));
+		}
+	}
+
+	//! Clustering variant of the parameters sweep
+	public static class ClusteringVariant {
+		public final String  outputPath;  // The output clusters file
+		public final float  scale;
+		public final float  lnscut;  // Links cutting ratio E [0, 1), 0 means skip the cutting
+		public final char  reduction;  // Reduction policy: n, a, m, s
+		public final boolean  reduceByWeight;
+
+		public ClusteringVariant(String outputPath, float scale, float lnscut, char reduction, boolean reduceByWeight) {
+			this.outputPath = outputPath;
+			this.scale = scale;
+			this.lnscut = lnscut;
+			this.reduction = reduction;
+			this.reduceByWeight = reduceByWeight;
+		}
+	}
+
+	//! Perform the type inference for multiple clustering variants evaluating the similarities once
+	//!
+	//! The clustering lib reduces the graph on the hierarchy building, so the input graph is formed
+	//! for each variant from the similarity matrix (or the restored links) retained in memory.
+	//! @param variants  - clustering variants, each having own output file
+	public void cluster(List<ClusteringVariant> variants, boolean multiLev, boolean filteringOn, boolean weighnode, SimilarityKernel simkern) throws Exception {
+		// Note: the links restored from the state are reused, otherwise the upper triangle of the similarity matrix
+		// is evaluated once pruning the pairs below the min similarity
+		SparseSimilarity  smat = null;
+		int[][]  back = null;  // Back links, formed only for the links cutting
+		if(slinks == null) {
+			System.err.println("Evaluating the similarity matrix for " + variants.size() + " clustering variants...");
+			smat = SparseSimilarity.evaluate(csmat, simkern, minSimilarity);
+			for(ClusteringVariant var: variants)
+				if(var.lnscut > 0) {
+					back = backLinks(smat);
+					break;
+				}
+		}
+		for(ClusteringVariant var: variants) {
+			System.err.println("Calling the clustering lib for the scale " + var.scale + ", reduction " + var.reduction
+				+ (var.reduceByWeight ? "w" : "") + " and cut-ratio " + var.lnscut + "...");
+			cluster(smat != null ? buildGraph(smat, back, weighnode, var.lnscut) : buildGraph(slinks, weighnode, var.lnscut)
+				, var.outputPath, var.scale, multiLev, var.reduction, var.reduceByWeight, filteringOn);
+		}
+		if(!retainInstances) {
+			if(retainNames)
+				csmat.releaseVectors();
+			else csmat = null;
+		}
+		slinks = null;
+	}
+
+	//! Perform the type inference merging the partial networks formed by saveNet() for all partitions
+	//!
+	//! @param netfiles  - the partial networks
+	//! @param outputPath  - the output clusters file
+	public static void cluster(String[] netfiles, String outputPath, float scale, boolean multiLev, char reduction, boolean reduceByWeight, boolean filteringOn) throws Exception {
+		System.err.println("Calling the clustering lib...");
+		cluster(buildGraph(netfiles), outputPath, scale, multiLev, reduction, reduceByWeight, filteringOn);
+	}
+
+	//! Perform the type inference for multiple clustering variants merging the partial networks for each of them
+	//!
+	//! @param netfiles  - the partial networks
+	//! @param variants  - clustering variants without the links cutting, each having own output file
+	public static void cluster(String[] netfiles, List<ClusteringVariant> variants, boolean multiLev, boolean filteringOn) throws Exception {
+		for(ClusteringVariant var: variants) {
+			if(var.lnscut > 0)
+				throw new IllegalArgumentException("The links cutting is not applicable for the partial networks");
+			cluster(netfiles, var.outputPath, var.scale, multiLev, var.reduction, var.reduceByWeight, filteringOn);
+		}
+	}
+
+	//! Cluster the graph and output the inferred types
+	private static void cluster(Graph gr, String outputPath, float scale, boolean multiLev, char reduction, boolean reduceByWeight, boolean filteringOn) {
 		OutputOptions outpopts = new OutputOptions();
 		final short outpflag = (short)(multiLev
 			//? 0x4A  // SIMPLE | SIGNIFICANT  (0xA - SIGNIF_OWNSHIER, 0xB - SIGNIF_OWNAHIER, 0x9 - SIGNIF_OWNADIR)
@@ -648,9 +1439,13 @@ public class Statix {
 			rdcpolicy |= (short)0x80;  // CRITERIA_WEIGHT, use reduction by weight instead of the optimization function
 		cops.reductionFromMask(rdcpolicy);
 		//cops.setReduction(daoc.toReduction(rdcpolicy));
-		Hierarchy hr = gr.buildHierarchy(cops);
-		System.err.println("Starting the hierarchy output");
-		hr.output(outpopts);
+		// Note: the clustering lib is internally parallel and is not declared thread-safe,
+		// so the concurrent (batch) jobs are clustered one at a time
+		synchronized(clusteringLock) {
+			Hierarchy hr = gr.buildHierarchy(cops);
+			System.err.println("Starting the hierarchy output");
+			hr.output(outpopts);
+		}
 		System.err.println("The types inference is completed to " + outputPath);
 	}
 }
@@ -0,0 +1,150 @@
+package info.exascale.statix;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+
+//! Reader of the N3/quad dataset triples pipelining the reading and parsing stages
+//!
+//! The lines are read in batches by the dedicated thread and each batch is tokenized to the triples by
+//! the parsing pool while the following lines are being read. The parsed batches are taken in order of
+//! the lines, so the consumer observes the triples in the same order as on the sequential reading.
+//! The stages are connected by the bounded queue, which limits the memory consumption.
+//! On a single CPU the stages can't overlap, so the batches are read and parsed by the consuming thread.
+//! @note The reader is not thread-safe, the batches should be taken by a single thread
+class TriplesReader implements AutoCloseable {
+	public static final int  batchSize = 1 << 12;  // The number of lines in the batch
+	public static final int  backlog = 16;  // Max number of the pending batches
+	// The loading stages are executed concurrently (pipelined)
+	public static final boolean  pipelined = Runtime.getRuntime().availableProcessors() >= 2;
+	private static final Future<String[][]>  eof = CompletableFuture.completedFuture(null);  // Marker of the completed input
+
+	private final BufferedReader  input;
+	private final ExecutorService  parsers;  // Parsing pool, null if the stages are not pipelined
+	private final ArrayBlockingQueue<Future<String[][]>>  batches = new ArrayBlockingQueue<Future<String[][]>>(backlog);
+	private final Thread  reader;  // Reading thread, null if the stages are not pipelined
+	private boolean  completed = false;  // The last batch is taken
+
+
+	//! Open the dataset and start the reading
+	//!
+	//! @param n3DataSet  - file name of the N3/quad RDF dataset
+	TriplesReader(String n3DataSet) throws IOException {
+		// Note: the file is opened by the calling thread to fail early
+		input = Files.newBufferedReader(Paths.get(n3DataSet));
+		if(!pipelined) {
+			parsers = null;
+			reader = null;
+			return;
+		}
+		// The parsing is lighter than the consuming stages, so a few threads are sufficient
+		final int  nparsers = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 2, 4));
+		parsers = Executors.newFixedThreadPool(nparsers, task -> {
+			Thread  thread = new Thread(task, "triples-parser");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reader = new Thread(this::read, "triples-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	//! Read the lines submitting their batches for the parsing
+	private void read() {
+		try {
+			try {
+				for(String[] lines; (lines = readLines()).length != 0;)
+					submit(lines);
+				batches.put(eof);
+			} catch(IOException err) {
+				final CompletableFuture<String[][]>  failed = new CompletableFuture<String[][]>();
+				failed.completeExceptionally(err);
+				batches.put(failed);
+			}
+		} catch(InterruptedException | RejectedExecutionException err) {
+			// The reading is cancelled, the parsers may be shut down while the lines are read
+		}
+	}
+
+	//! Read the batch of lines
+	//!
+	//! @return  - the lines, empty if the input is completed
+	private String[] readLines() throws IOException {
+		final String[]  lines = new String[batchSize];
+		int  nlines = 0;
+		while(nlines < batchSize && (lines[nlines] = input.readLine()) != null)
+			++nlines;
+		return nlines != batchSize ? Arrays.copyOf(lines, nlines) : lines;
+	}
+
+	//! Submit the batch of lines for the parsing
+	private void submit(final String[] lines) throws InterruptedException {
+		batches.put(parsers.submit(() -> parse(lines)));
+	}
+
+	//! Parse the batch of lines
+	//!
+	//! @return  - the triples omitting the comments
+	private static String[][] parse(String[] lines) {
+		String[][]  triples = new String[lines.length][];
+		int  n = 0;
+		for(String line: lines) {
+			final String[]  s = SimilarityMatix.parseTriple(line);
+			if(s != null)
+				triples[n++] = s;
+		}
+		return n != lines.length ? Arrays.copyOf(triples, n) : triples;
+	}
+
+	//! Take the next batch of the triples
+	//!
+	//! @return  - the parsed triples (s, p, o) in order of the lines omitting the comments, null if the input is completed
+	public String[][] next() throws IOException {
+		if(completed)
+			return null;
+		if(!pipelined) {
+			final String[]  lines = readLines();
+			completed = lines.length == 0;
+			return !completed ? parse(lines) : null;
+		}
+		try {
+			final String[][]  triples = batches.take().get();
+			completed = triples == null;
+			return triples;
+		} catch(InterruptedException err) {
+			throw new IOException("The triples reading is interrupted", err);
+		} catch(ExecutionException err) {
+			// Propagate the parsing errors as is
+			final Throwable  cause = err.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			throw new IOException("The triples reading failed", cause);
+		}
+	}
+
+	//! Stop the stages and close the dataset
+	public void close() throws IOException {
+		if(reader != null) {
+			reader.interrupt();
+			parsers.shutdownNow();
+			try {
+				reader.join();
+			} catch(InterruptedException err) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		input.close();
+	}
+}
@@ -0,0 +1,315 @@
+package info.exascale.statix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+//! Dictionary of the URIs (RDF subjects and properties) compressed by their shared namespaces
+//!
+//! Each term is split into the namespace (prefix up to the last '/' or '#' inclusively) id and
+//! the local part. The local parts are packed into the UTF-8 encoded byte arena indexed by the
+//! term offsets. Terms are identified by the sequential ids assigned in order of their addition,
+//! i.e. in order of the first occurrence in the input dataset.
+//! @note The dictionary is not thread-safe, only the lookups via own Lookup of each thread are
+//! 	re-entrant while the dictionary is not modified
+public class UriDictionary {
+	private static final float  loadFactor = 0.6f;  // Max load factor of the hash table
+
+	private final ArrayList<String>  nsNames = new ArrayList<String>();  // Namespaces by ids
+	private final ArrayList<byte[]>  nsBytes = new ArrayList<byte[]>();  // UTF-8 encoded namespaces by ids
+	private final HashMap<String, Integer>  nsIds = new HashMap<String, Integer>();  // Namespace ids
+	private int  nsLast = -1;  // Id of the last looked up namespace, most of the consecutive terms share it
+
+	private byte[]  arena;  // Packed local parts of the terms
+	private int[]  offsets;  // Offsets of the local parts in the arena, offsets[size] is the used arena size
+	private int[]  termsNs;  // Namespace id of each term
+	private int  size = 0;  // The number of terms
+	private int[]  slots;  // Hash table of the (term id + 1), 0 means an empty slot
+
+	private final Lookup  encoder = new Lookup();  // Encoder of the added and looked up terms
+
+
+	//! Re-entrant lookup of the terms
+	//!
+	//! The lookup encodes the terms to its own buffer without any modification of the dictionary,
+	//! so the concurrent lookups of distinct threads are safe while the dictionary is not modified.
+	public class Lookup {
+		// Encoded local part of the last processed term
+		private byte[]  buf = new byte[256];
+		private int  buflen = 0;
+
+		//! Lookup the term id
+		//!
+		//! @param term  - the term to be looked up
+		//! @return  - id of the term or -1 if the term does not exist
+		public int id(String term) {
+			final int  isep = separator(term);
+			final Integer  ns = nsIds.get(term.substring(0, isep));
+			if(ns == null)
+				return -1;
+			encode(term, isep);
+			return slots[slot(ns, buf, buflen)] - 1;
+		}
+
+		//! Encode the local part of the term to the buffer
+		//!
+		//! @param term  - the term
+		//! @param isep  - begin of the local part
+		private void encode(String term, int isep) {
+			// Fast path for ASCII
+			final int  len = term.length() - isep;
+			if(buf.length < len * 3)
+				buf = new byte[len * 3];
+			buflen = 0;
+			for(int i = isep; i < term.length(); ++i) {
+				final char  c = term.charAt(i);
+				if(c >= 0x80) {
+					final byte[]  bts = term.substring(isep).getBytes(StandardCharsets.UTF_8);
+					System.arraycopy(bts, 0, buf, 0, bts.length);
+					buflen = bts.length;
+					break;
+				}
+				buf[buflen++] = (byte)c;
+			}
+		}
+	}
+
+
+	//! Construct the dictionary
+	//!
+	//! @param capacity  - the expected number of terms
+	public UriDictionary(int capacity) {
+		if(capacity < 16)
+			capacity = 16;
+		arena = new byte[capacity * 16];
+		offsets = new int[capacity + 1];
+		termsNs = new int[capacity];
+		slots = new int[Integer.highestOneBit((int)(capacity / loadFactor)) << 1];
+	}
+
+	public UriDictionary() {
+		this(1024);
+	}
+
+	//! The number of terms
+	public int size()  { return size; }
+
+	//! The number of namespaces
+	public int namespaces()  { return nsNames.size(); }
+
+	//! The size of the local parts arena in bytes
+	public int arenaSize()  { return offsets[size]; }
+
+	//! Add the term if it does not exist yet
+	//!
+	//! @param term  - the term to be added
+	//! @return  - id of the term
+	public int add(String term) {
+		final int  ns = namespace(term, true);
+		final byte[]  buf = encoder.buf;
+		final int  buflen = encoder.buflen;
+		final int  i = slot(ns, buf, buflen);
+		if(slots[i] != 0)
+			return slots[i] - 1;
+		// Add the new term
+		final int  id = size;
+		if(id + 1 == offsets.length) {
+			final int  capacity = id + (id >> 1) + 1;
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			termsNs = Arrays.copyOf(termsNs, capacity);
+		}
+		final int  off = offsets[id];
+		if(arena.length - off < buflen) {
+			final long  capacity = Math.max((long)arena.length * 2, (long)off + buflen);
+			if(capacity > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("The dictionary arena exceeds the max size for "
+					+ size + " terms");
+			arena = Arrays.copyOf(arena, (int)capacity);
+		}
+		System.arraycopy(buf, 0, arena, off, buflen);
+		offsets[id + 1] = off + buflen;
+		termsNs[id] = ns;
+		slots[i] = id + 1;
+		if(++size > slots.length * loadFactor)
+			rehash();
+		return id;
+	}
+
+	//! Lookup the term id
+	//!
+	//! @param term  - the term to be looked up
+	//! @return  - id of the term or -1 if the term does not exist
+	//! @note The lookup is not re-entrant, see lookup()
+	public int id(String term) {
+		final int  ns = namespace(term, false);
+		if(ns == -1)
+			return -1;
+		return slots[slot(ns, encoder.buf, encoder.buflen)] - 1;
+	}
+
+	//! Create the re-entrant lookup, each concurrent thread should have own lookup
+	public Lookup lookup()  { return new Lookup(); }
+
+	//! Reverse lookup of the term
+	//!
+	//! @param id  - id of the term
+	//! @return  - the term
+	public String term(int id) {
+		if(id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("The term id is out of range: " + id);
+		return nsNames.get(termsNs[id]).concat(new String(arena, offsets[id]
+			, offsets[id + 1] - offsets[id], StandardCharsets.UTF_8));
+	}
+
+	//! The size of the UTF-8 encoded term in bytes
+	public int termBytes(int id) {
+		return nsBytes.get(termsNs[id]).length + offsets[id + 1] - offsets[id];
+	}
+
+	//! Write UTF-8 encoded term without its decoding
+	//!
+	//! @param id  - id of the term
+	//! @param out  - output stream
+	public void write(int id, OutputStream out) throws IOException {
+		out.write(nsBytes.get(termsNs[id]));
+		out.write(arena, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	//! Release the reserved but not used memory
+	public void trim() {
+		arena = Arrays.copyOf(arena, offsets[size]);
+		offsets = Arrays.copyOf(offsets, size + 1);
+		termsNs = Arrays.copyOf(termsNs, size);
+	}
+
+	//! Serialize the dictionary
+	//!
+	//! @param out  - output stream
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(nsNames.size());
+		for(String ns: nsNames)
+			out.writeUTF(ns);
+		out.writeInt(size);
+		for(int i = 0; i < size; ++i) {
+			out.writeInt(termsNs[i]);
+			out.writeInt(offsets[i + 1]);
+		}
+		out.write(arena, 0, offsets[size]);
+	}
+
+	//! Deserialize the dictionary
+	//!
+	//! @param inp  - input stream
+	//! @return  - the dictionary
+	public static UriDictionary load(DataInputStream inp) throws IOException {
+		final int  nsnum = inp.readInt();
+		ArrayList<String>  namespaces = new ArrayList<String>(nsnum);
+		for(int i = 0; i < nsnum; ++i)
+			namespaces.add(inp.readUTF());
+		final int  size = inp.readInt();
+		UriDictionary  dict = new UriDictionary(size);
+		for(String ns: namespaces) {
+			dict.nsIds.put(ns, dict.nsNames.size());
+			dict.nsNames.add(ns);
+			dict.nsBytes.add(ns.getBytes(StandardCharsets.UTF_8));
+		}
+		for(int i = 0; i < size; ++i) {
+			dict.termsNs[i] = inp.readInt();
+			dict.offsets[i + 1] = inp.readInt();
+			if(dict.termsNs[i] < 0 || dict.termsNs[i] >= nsnum || dict.offsets[i + 1] < dict.offsets[i])
+				throw new IOException("The dictionary is corrupted at the term #" + i);
+		}
+		dict.arena = new byte[dict.offsets[size]];
+		inp.readFully(dict.arena);
+		dict.size = size;
+		dict.slots = new int[Integer.highestOneBit((int)(size / loadFactor) + 8) << 1];
+		dict.fill();
+		return dict;
+	}
+
+	//! Identify namespace of the term and encode its local part to the buffer
+	//!
+	//! @param term  - the term
+	//! @param add  - add the namespace if it does not exist
+	//! @return  - namespace id, -1 if does not exist and is not added
+	private int namespace(String term, boolean add) {
+		final int  isep = separator(term);
+		int  ns = nsLast;
+		if(ns == -1 || nsNames.get(ns).length() != isep || !term.startsWith(nsNames.get(ns))) {
+			final String  nsname = term.substring(0, isep);
+			Integer  nsid = nsIds.get(nsname);
+			if(nsid == null) {
+				if(!add)
+					return -1;
+				nsid = nsNames.size();
+				nsIds.put(nsname, nsid);
+				nsNames.add(nsname);
+				nsBytes.add(nsname.getBytes(StandardCharsets.UTF_8));
+			}
+			ns = nsLast = nsid;
+		}
+		encoder.encode(term, isep);
+		return ns;
+	}
+
+	//! Begin of the local part of the term (end of its namespace)
+	private static int separator(String term) {
+		return Math.max(term.lastIndexOf('/'), term.lastIndexOf('#')) + 1;
+	}
+
+	//! Slot of the hash table holding the encoded term or the empty slot to hold it
+	//!
+	//! @param ns  - namespace id of the term
+	//! @param bytes  - encoded local part of the term
+	//! @param len  - length of the encoded local part
+	//! @return  - the slot index
+	private int slot(int ns, byte[] bytes, int len) {
+		final int  mask = slots.length - 1;
+		int  i = hash(ns, bytes, 0, len) & mask;
+		for(int id; (id = slots[i] - 1) != -1; i = (i + 1) & mask)
+			if(matches(id, ns, bytes, len))
+				break;
+		return i;
+	}
+
+	private static int hash(int ns, byte[] bytes, int off, int end) {
+		int  h = 0x811C9DC5 ^ ns;  // FNV-1a
+		for(int i = off; i < end; ++i)
+			h = (h ^ bytes[i]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	//! Whether the encoded term matches the stored term
+	private boolean matches(int id, int ns, byte[] bytes, int len) {
+		final int  off = offsets[id];
+		if(termsNs[id] != ns || offsets[id + 1] - off != len)
+			return false;
+		for(int i = 0; i < len; ++i)
+			if(arena[off + i] != bytes[i])
+				return false;
+		return true;
+	}
+
+	//! Double the hash table
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		fill();
+	}
+
+	//! Fill the hash table with all terms
+	private void fill() {
+		final int  mask = slots.length - 1;
+		for(int id = 0; id < size; ++id) {
+			int  i = hash(termsNs[id], arena, offsets[id], offsets[id + 1]) & mask;
+			while(slots[i] != 0)
+				i = (i + 1) & mask;
+			slots[i] = id + 1;
+		}
+	}
+}
@@ -5,6 +5,12 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.IOException;
 import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -19,6 +25,17 @@ public class main {
 	public static final String  clirev = "";  // ATTENTION: Substituted during the build
 	
 	public static void main(String[] args) throws Exception {
+		final int  code = run(args, false);
+		if(code != 0)
+			System.exit(code);
+	}
+
+	//! Execute the command
+	//!
+	//! @param args  - command line arguments
+	//! @param batchJob  - the command is a job of the batch executed concurrently with other jobs
+	//! @return  - exit code
+	private static int run(String[] args, final boolean batchJob) throws Exception {
 		CommandLineParser parser = new DefaultParser();
 		// Mutually exclusive group of the supervised options / input format
 		final OptionGroup optspv = new OptionGroup();
@@ -32,19 +49,37 @@ public class main {
 		// Workflow: analyze input dataset, ask to rate potentially indicative properties (that might have huge impact)
 		//options.addOption("p", "supervised", true, "Supervision hint data in the format: <indicativity>\t <property>, where indicativity E [0, 1], '#' line comments are allowed.");
 		options.addOptionGroup(optspv);
+		options.addOption(Option.builder().longOpt("gt-cache").hasArg().desc("Cache the ground-truth sample (-g) compacted to the ids of the properties and types of its instances in the specified file, so the property weights of any input dataset are evaluated from the cache without the ground-truth re-parsing. The cache is (re)formed if it is absent or the ground-truth file is changed (validated by its size, modification time and the content hash of the sampled blocks) and requires -g").build());
 		options.addOption("o", "output", true, "Output file, default: <inpfile>" + Statix.extCls);
 		options.addOption("n", "id-name", true, "Output map of the instance id names (labels) to the <inpfile>.idm in tab separated format: <id> <subject_name>, default: disabled. Note: all instances are mapped including non-typed ones");
+		options.addOption(Option.builder().longOpt("labeled").hasArg().desc("Output the resulting clusters labeled by the subjects (names) of their members to the specified file, avoiding the join of the clusters with the id map. Each line is a cluster: <type>\t<subject1> <subject2> ..., where the type is the most frequent #type of the members in the input dataset ('-' if the members are not typed or the types are not available in the inference state)").build());
 		options.addOption("l", "cl-label", true, "Output map of the cluster labels (names) (<inpfile>.clb in the label per line format, default: disabled, requires: -e");
 		options.addOption("m", "multi-level", false, "Output type inference for multiple scales (representative clusters from all hierarchy levels) besides the macro scale (top level, root)");
-		options.addOption("s", "scale", true, "Scale (resolution, gamma parameter of the clustering), -1 is automatic scale inference for each cluster, >=0 is the forced static scale (<=1 for the macro clustering); default: -1");
+		options.addOption("s", "scale", true, "Scale (resolution, gamma parameter of the clustering), -1 is automatic scale inference for each cluster, >=0 is the forced static scale (<=1 for the macro clustering); default: -1. The comma-separated lists of the scales, reduction policies (-r) and cut-ratios (-c) are swept performing the clustering for each combination of the listed values while the similarities are evaluated once, the output files are suffixed by the listed parameters: <output>[_s<scale>][_r<reduction>][_c<cut-ratio>]" + Statix.extCls + ", where the reduction 'n' means none. Example: -s 0.5,1,2 -r a,m");
 		options.addOption("r", "reduce", true, "Reduce graph links (similarity matrix) on the graph clustering (after the graph is constructed) by non-significant relations to reduce memory consumption and speedup the clustering (recommended for large datasets). Options X[Y]; X: a - accurate, m - mean, s - severe; Y: o - use optimization function for the links reduction (default), w - reduce links by their raw weight. Examples: -r m, -r mw. Note: all non-zero unique items (half of the symmetric matrix) are supplied for the graph construction, which is the memory consumption bottleneck");
 		options.addOption("c", "cut-ratio", true, "Cut the graph links (similarity matrix) iteratively on the graph construction before the construction is completed discarding instance (node) links lighter than cut-ratio * avg_ndlinks_weight, cut-ratio E [0, 1), recommended value if applied: ~0.25, 0 means skip the cutting. Reduces the memory consumption and speedups the clustering but affects the accuracy, see \"reduce\" for the more accurate links reduction during the clustering");
 		options.addOption("f", "filter", false, "Filter out from the resulting clusters all subjects that do not have the '#type' property in the input dataset, used for the type inference evaluation");
 		options.addOption("w", "weigh-instance", false, "Weight RDF instances (subjects, consider the self-relation) or use only the weighted relations between the instances");
-		options.addOption("j", "jaccard-similarity", false, "Use (weighted) Jaccard instead of the Cosine similarity");
+		options.addOption("j", "jaccard-similarity", false, "Use (weighted) Jaccard instead of the Cosine similarity, the same as --similarity jaccard");
+		options.addOption(Option.builder().longOpt("similarity").hasArg().desc("Similarity of the instances: cosine (weighted Cosine), jaccard (weighted Jaccard), overlap (weighted overlap coefficient, the cheapest normalized one) or dot[:<threshold>] (dot product of the weighted properties, omitted below the threshold); default: cosine").build());
 		options.addOption("e", "extract-groundtruth", true, "Extract ground-truth (ids of the subjects per each type) to the specified file in the " + Statix.extCls + " format, optionally with subjects and type labels");
 		options.addOption("u", "unique-triples", false, "Unique triples only are present in the ground-truth dataset (natty, clean data without duplicates), so there is no need of the possible duplicates identification and omission");
-		options.addOption("p", "network", true, "Produce .rcg input network file for the clustering without the type inference itself and respecting the \"cut-ratio\", \"filter\", \"weigh-instance\" and \"jaccard-similarity\" options");
+		options.addOption("t", "trim", false, "Trim the instances storage (names dictionary) after the input dataset loading releasing the reserved memory, which reduces the memory consumption for the large datasets at the cost of the additional reallocations");
+		options.addOption("p", "network", true, "Produce .rcg input network file for the clustering without the type inference itself and respecting the \"cut-ratio\", \"filter\", \"weigh-instance\", \"jaccard-similarity\" and \"similarity\" options");
+		options.addOption(Option.builder().longOpt("partition").hasArg().desc("Produce only the specified partition <part>/<parts> of the input network (requires: -p), where part E [1, parts]. The upper triangle of the similarity matrix is split by the consecutive instances into the partitions having about the same number of the evaluated instance pairs, so the partitions can be produced by the independent processes (hosts) and then merged on the clustering (see --merge). Not applicable for the links cutting (-c)").build());
+		options.addOption(Option.builder().longOpt("merge").hasArg().desc("Perform the type inference (clustering) of the input network merged from all partitions produced by -p with --partition instead of the input dataset. The argument is a comma-separated list of the partial network files in any order. Output: <first_partial_network>" + Statix.extCls + " or the specified one (-o)").build());
+		options.addOption(Option.builder().longOpt("state").hasArg().desc("Save the inference state (instances, property vectors and weights, similarity links) to the specified directory for the subsequent incremental type inference").build());
+		options.addOption("i", "incremental", true, "Incremental type inference for the input dataset being a delta (appended triples) of the dataset stored in the inference state (requires: --state, which is updated), reevaluating only the similarity links of the affected instances. The argument is a relative tolerance of the automatically evaluated property weights, e.g. 0.05; the property weight is updated only if its relative change exceeds the tolerance, 0 means update all changed weights");
+		options.addOption("q", "query", true, "Start the similarity query service for the loaded instances instead of the type inference, answering the top-k nearest neighbours of the instances or ad-hoc property sets. The argument is a local TCP port or '-' for the stdin/stdout (the logs are redirected to the stderr). The instances can be loaded from the inference state (--state) without the input dataset. Requests: 'inst <k> <subject>', 'props <k> <property>...', 'quit'; responses: '<id>\t<similarity>\t<subject>' lines terminated by the empty line");
+		options.addOption(Option.builder().longOpt("centroids").hasArg().desc("Build the centroids classifier (weighted property profiles of the inferred types) from the resulting clusters and save it to the specified file for the subsequent assignment of the new instances (see -a)").build());
+		options.addOption(Option.builder().longOpt("clusters").hasArg().desc("Clusters (" + Statix.extCls + " file) of the completed type inference of the input dataset to build the centroids classifier from instead of the type inference (requires: --centroids)").build());
+		options.addOption("a", "assign", true, "Assign the instances (subjects) of the input dataset to the most similar clusters by the specified centroids classifier (see --centroids) instead of the type inference. Output: <inpfile>" + Statix.extAssign + " or the specified one (-o) in the tab separated format: <subject> <cluster_index> <similarity>, where the cluster index is the line in the " + Statix.extCls + " file (-1 if the subject is not similar to any cluster)");
+		options.addOption(Option.builder().longOpt("min-similarity").hasArg().desc("Min similarity of the linked instances, the lighter links are omitted before the links cutting (see -c) and the pairs of instances that can't reach it are pruned on the similarity evaluation, which speeds up the graph construction (the pruning is applicable for the cosine, jaccard and overlap similarity); default: 0, link all similar instances").build());
+		options.addOption(Option.builder().longOpt("estimate").desc("Estimate the input graph by the sampled pairs of the loaded instances instead of the type inference (dry run), reporting the expected number of links (non-zero edges), the weights histogram, the links retained by the links cutting (each -c value or 0 and 0.25) with the projected network (" + Statix.extNet + ") size and peak memory, and the projected graph building time at the measured pairs evaluation rate. The number of the sampled pairs is " + GraphEstimator.pairsDefault + ", so the estimation takes seconds. Respects -w, --similarity and --min-similarity, not applicable for -q, -p, -a, --state, --centroids, --clusters, --labeled, --merge and --memory-budget").build());
+		options.addOption(Option.builder().longOpt("memory-budget").hasArg().desc("Memory budget of the type inference, <size>[k|m|g] bytes. The input graph is estimated by the sampled pairs of the loaded instances and, if the projected memory exceeds the budget, the graph is sparsified: the links cutting (-c 0.25 unless -c is specified) and the min similarity (--min-similarity is raised) are applied on the graph construction and the mean reduction (-r m unless -r is specified) on the clustering. The plan and its check against the actual peak memory are reported. Not applicable for -q, -p, -a, --clusters, --merge and the lists of the clustering parameters").build());
+		options.addOption(Option.builder().longOpt("kernel").hasArg().desc("Kernel of the pairwise similarity evaluation: auto (vectorized if the jdk.incubator.vector module is available, otherwise scalar), scalar, vector or verify (the vectorized kernel validated by the scalar one); default: auto").build());
+		options.addOption(Option.builder().longOpt("batch").hasArg().desc("Execute the batch of jobs in a single process instead of the input dataset processing, reusing the loaded libraries and the warmed-up JIT. The argument is a jobs file, where each line is the command line arguments (options and the input dataset) of the job, the arguments containing spaces should be double-quoted, '#' line comments are allowed. Each job has own inference state and its execution time is reported; the query service (-q), interactive hints (-b --) and nested batches are not applicable for the jobs").build());
+		options.addOption(Option.builder().longOpt("workers").hasArg().desc("The number of the batch jobs executed concurrently (requires --batch); default: the number of CPUs").build());
 		options.addOption("v", "version", false, "Show version number");
 		
 		HelpFormatter formatter = new HelpFormatter();
@@ -56,6 +91,7 @@ public class main {
 		final String desription = "Statistical type inference in fully automatic and semi supervised modes\nOptions:";
 		final String reference = "\nSee details in https://github.com/eXascaleInfolab/StaTIX";
 		Statix  statix = new Statix();
+		final PrintStream stdout = System.out;  // Original stdout, which is restored on completion
 		
 		try {
 			final CommandLine  cmd = parser.parse(options, args);
@@ -63,7 +99,7 @@ public class main {
 			// Check for the help option
 			if(cmd.hasOption("h")) {
 				formatter.printHelp(appusage, desription, options, reference);
-				System.exit(0);
+				return 0;
 			}
 			
 			// Check for the version
@@ -83,15 +119,114 @@ public class main {
 				if(!Statix.daocSwigRevision().isEmpty())
 					System.out.println("SWIG revision: " + Statix.daocSwigRevision());
 				System.out.println("= Library Build =\n" + Statix.daocBuildInfo());
-				System.exit(0);
+				return 0;
+			}
+
+			// Check for the batch mode
+			if(cmd.hasOption("workers") && !cmd.hasOption("batch"))
+				throw new IllegalArgumentException("Parameter --workers requires --batch");
+			if(cmd.hasOption("batch")) {
+				if(batchJob)
+					throw new IllegalArgumentException("The nested batches are not applicable");
+				if(cmd.getArgs().length != 0 || cmd.getOptions().length != (cmd.hasOption("workers") ? 2 : 1))
+					throw new IllegalArgumentException("Parameter --batch is not applicable for other options and the input dataset");
+				final int  workers = cmd.hasOption("workers") ? Integer.parseInt(cmd.getOptionValue("workers"))
+					: Runtime.getRuntime().availableProcessors();
+				if(workers < 1)
+					throw new IllegalArgumentException("The number of workers should be positive");
+				return runBatch(cmd.getOptionValue("batch"), workers);
 			}
 			
+			// Check for the query service, which might operate on the state without the input dataset
+			final String queryEndpoint = cmd.hasOption("q") ? cmd.getOptionValue("q") : null;
+			final String stateDir = cmd.hasOption("state") ? cmd.getOptionValue("state") : null;
+			final boolean queryState = queryEndpoint != null && stateDir != null;
+			// Check for the clustering of the merged partial networks
+			final String[] mergedNets = cmd.hasOption("merge") ? cmd.getOptionValue("merge").split(",") : null;
 			String[] files = cmd.getArgs();
-			if(files.length != 1)
-				throw new IllegalArgumentException("A single input dataset is expected with optimal parameters");
+			if(files.length != (queryState || mergedNets != null ? 0 : 1))
+				throw new IllegalArgumentException(queryState ? "The input dataset is not expected for the query service on the state"
+					: mergedNets != null ? "The input dataset is not expected for the merging of the partial networks"
+					: "A single input dataset is expected with optimal parameters");
+			if(mergedNets != null) {
+				if(queryEndpoint != null || stateDir != null || cmd.hasOption("p") || cmd.hasOption("e") || cmd.hasOption("g")
+				|| cmd.hasOption("b") || cmd.hasOption("i") || cmd.hasOption("a") || cmd.hasOption("centroids")
+				|| cmd.hasOption("c") || cmd.hasOption("w"))
+					throw new IllegalArgumentException("Parameter --merge is not applicable for -q, --state, -p, -e, -g, -b, -i, -a, --centroids, -c and -w");
+				for(String net: mergedNets)
+					if(net.isEmpty())
+						throw new IllegalArgumentException("The partial network file name should not be empty");
+			}
+			// Check for the sweep of the clustering parameters
+			final boolean  sweep = (cmd.hasOption("s") && cmd.getOptionValue("s").indexOf(',') != -1)
+				|| (cmd.hasOption("r") && cmd.getOptionValue("r").indexOf(',') != -1)
+				|| (cmd.hasOption("c") && cmd.getOptionValue("c").indexOf(',') != -1);
+			if(sweep && (queryEndpoint != null || cmd.hasOption("p") || cmd.hasOption("clusters") || cmd.hasOption("centroids")
+			|| cmd.hasOption("labeled")))
+				throw new IllegalArgumentException("The lists of the clustering parameters (-s, -r, -c) are not applicable for -q, -p, --clusters, --centroids and --labeled");
+			// Check for the estimation of the input graph
+			if(cmd.hasOption("estimate") && (queryEndpoint != null || cmd.hasOption("p") || cmd.hasOption("a") || stateDir != null
+			|| cmd.hasOption("centroids") || cmd.hasOption("clusters") || cmd.hasOption("labeled") || mergedNets != null
+			|| cmd.hasOption("memory-budget")))
+				throw new IllegalArgumentException("Parameter --estimate is not applicable for -q, -p, -a, --state, --centroids, --clusters, --labeled, --merge and --memory-budget");
+			// Check for the memory budget of the clustering
+			if(cmd.hasOption("memory-budget") && (queryEndpoint != null || cmd.hasOption("p") || cmd.hasOption("a")
+			|| cmd.hasOption("clusters") || mergedNets != null || sweep))
+				throw new IllegalArgumentException("Parameter --memory-budget is not applicable for -q, -p, -a, --clusters, --merge and the lists of the clustering parameters");
+			final long  memBudget = cmd.hasOption("memory-budget") ? parseSize(cmd.getOptionValue("memory-budget")) : 0;
+			// Check for the labeled clusters output
+			if(cmd.hasOption("labeled") && (queryEndpoint != null || cmd.hasOption("p") || cmd.hasOption("a")
+			|| cmd.hasOption("clusters") || mergedNets != null))
+				throw new IllegalArgumentException("Parameter --labeled is not applicable for -q, -p, -a, --clusters and --merge");
+			statix.captureTypes(cmd.hasOption("labeled"));
+			if(cmd.hasOption("gt-cache")) {
+				if(!cmd.hasOption("g"))
+					throw new IllegalArgumentException("Parameter --gt-cache requires -g");
+				statix.gtCache(cmd.getOptionValue("gt-cache"));
+			}
+			// Partition of the input network
+			int  part = 1;
+			int  parts = 1;
+			if(cmd.hasOption("partition")) {
+				if(!cmd.hasOption("p") || cmd.hasOption("c") || stateDir != null)
+					throw new IllegalArgumentException("Parameter --partition requires -p and is not applicable for -c and --state");
+				final String  partval = cmd.getOptionValue("partition");
+				final int  idel = partval.indexOf('/');
+				if(idel == -1)
+					throw new IllegalArgumentException("The partition should be specified as <part>/<parts>: " + partval);
+				part = Integer.parseInt(partval.substring(0, idel));
+				parts = Integer.parseInt(partval.substring(idel + 1));
+				if(parts < 1 || part < 1 || part > parts)
+					throw new IllegalArgumentException("The partition is out of the expected range: " + partval);
+			}
+			if(queryEndpoint != null) {
+				if(batchJob)
+					throw new IllegalArgumentException("Parameter -q is not applicable for the batch jobs");
+				if(cmd.hasOption("p") || cmd.hasOption("e") || cmd.hasOption("i"))
+					throw new IllegalArgumentException("Parameter -q is not applicable for -p, -e and -i");
+				if(queryState && (cmd.hasOption("g") || cmd.hasOption("b")))
+					throw new IllegalArgumentException("Parameters -g and -b are not applicable for the query service on the state");
+			}
+			// Check for the assignment of the new instances, which does not load the input dataset to the similarity matrix
+			if(cmd.hasOption("clusters") && !cmd.hasOption("centroids"))
+				throw new IllegalArgumentException("Parameter --clusters requires --centroids");
+			if(cmd.hasOption("centroids") && (queryEndpoint != null || cmd.hasOption("p")))
+				throw new IllegalArgumentException("Parameter --centroids is not applicable for -q and -p");
+			if(cmd.hasOption("a")) {
+				if(queryEndpoint != null || stateDir != null || cmd.hasOption("centroids") || cmd.hasOption("p") || cmd.hasOption("e")
+				|| cmd.hasOption("g") || cmd.hasOption("b"))
+					throw new IllegalArgumentException("Parameter -a is not applicable for -q, --state, --centroids, -p, -e, -g and -b");
+				Statix.assign(cmd.getOptionValue("a"), files[0], cmd.hasOption("o") ? cmd.getOptionValue("o")
+					: Statix.updateFileExtension(files[0], Statix.extAssign));
+				return 0;
+			}
+			// Reserve the stdout for the query responses
+			if(queryEndpoint != null && queryEndpoint.equals("-"))
+				System.setOut(System.err);
 			
 			String idMapFName = cmd.hasOption("n") ? cmd.getOptionValue("n") : null;
 			final boolean dirty = !cmd.hasOption("u");  // Dirty input: triples might include duplicates
+			final boolean trim = cmd.hasOption("t");  // Trim the instances properties after the loading
 
 			// Check for the filtering option
 			// ATTENTION: should be done before the input datasets reading
@@ -104,14 +239,45 @@ public class main {
 				final String tpLblFName = cmd.hasOption("l") ? cmd.getOptionValue("l") : null;
 				SimilarityMatix.extractGT(files[0], cmd.getOptionValue("e"), filteringOn, idMapFName, tpLblFName, dirty);
 				if(!cmd.hasOption("p") && !cmd.hasOption("o"))
-					System.exit(0);
+					return 0;
 				idMapFName = null;
 			}
 
-			if(cmd.hasOption("g")) {
+			statix.setKernel(cmd.hasOption("kernel") ? cmd.getOptionValue("kernel") : IntersectionKernel.kernelAuto);
+			// Similarity kernel
+			if(cmd.hasOption("j") && cmd.hasOption("similarity") && !cmd.getOptionValue("similarity").equals(SimilarityKernel.similarityJaccard))
+				throw new IllegalArgumentException("Parameter -j conflicts with --similarity " + cmd.getOptionValue("similarity"));
+			final SimilarityKernel simkern = SimilarityKernel.create(cmd.hasOption("similarity") ? cmd.getOptionValue("similarity")
+				: cmd.hasOption("j") ? SimilarityKernel.similarityJaccard : SimilarityKernel.similarityCosine);
+
+			if(cmd.hasOption("min-similarity")) {
+				final float minsim = Float.parseFloat(cmd.getOptionValue("min-similarity"));
+				if(!(minsim >= 0))
+					throw new IllegalArgumentException("The min similarity is out of the expected range");
+				statix.setMinSimilarity(minsim);
+			}
+
+			// Check for the incremental mode
+			if(stateDir != null && cmd.hasOption("p"))
+				throw new IllegalArgumentException("Parameter --state is not applicable for -p");
+			if(mergedNets != null) {
+				// The instances are not loaded, the links are taken from the partial networks
+			} else if(queryState)
+				statix.loadState(stateDir, filteringOn);
+			else if(cmd.hasOption("i")) {
+				if(stateDir == null)
+					throw new IllegalArgumentException("Parameter -i requires --state");
+				if(cmd.hasOption("g") || cmd.hasOption("b"))
+					throw new IllegalArgumentException("Parameter -i is not applicable for -g and -b, the property weights are taken from the state");
+				final float weps = Float.parseFloat(cmd.getOptionValue("i"));
+				if(weps < 0)
+					throw new IllegalArgumentException("The incremental weights tolerance is out of the expected range");
+				statix.loadState(stateDir, files[0], filteringOn, idMapFName, weps, simkern);
+			}
+			else if(cmd.hasOption("g")) {
 				String gtDataset = cmd.getOptionValue("g");
 				//System.out.println("Ground-truth file= "+gtDataset);
-				statix.loadDatasets(files[0], gtDataset, filteringOn, idMapFName, dirty);
+				statix.loadDatasets(files[0], gtDataset, filteringOn, idMapFName, dirty, trim);
 			}
 			else {
 				String hints = cmd.hasOption("b") ? cmd.getOptionValue("b") : null;
@@ -119,6 +285,8 @@ public class main {
 				if(hints != null) {
 					if(hints.isEmpty())  // '' or ""
 						throw new IllegalArgumentException("The hints parameter should not be empty");
+					if(batchJob && hints.equals("--"))
+						throw new IllegalArgumentException("The interactive hints are not applicable for the batch jobs");
 					if(!hints.startsWith("-") && !Files.isReadable(Paths.get(hints))) {
 						// Note: the hints are not loaded if not required for the particular dataset
 						throw new IllegalArgumentException("The hints file is not readable");
@@ -134,50 +302,75 @@ public class main {
 					if(hints != "--" && hints.length() >= 2 && Integer.parseInt(hints.substring(1)) <= 1)
 						throw new IllegalArgumentException("The number of marks is too small");
 				}
-				statix.loadDataset(files[0], filteringOn, idMapFName, hints, dirty);
+				if(!statix.loadDataset(files[0], filteringOn, idMapFName, hints, dirty, trim))
+					return 0;
 			}
 
-			// Scale
-			float scale = -1;
-			if(cmd.hasOption("s")) {
-				scale = Float.parseFloat(cmd.getOptionValue("s"));
-				if(scale != -1 && scale < 0)
+			// Scale, the listed values are swept
+			final String[]  scaleVals = cmd.hasOption("s") ? cmd.getOptionValue("s").split(",", -1) : new String[] {"-1"};
+			final float[]  scales = new float[scaleVals.length];
+			for(int i = 0; i < scaleVals.length; ++i) {
+				scales[i] = Float.parseFloat(scaleVals[i]);
+				if(scales[i] != -1 && scales[i] < 0)
 					throw new IllegalArgumentException("The scale parameter is out of the expected range");
 			}
+			float scale = scales[0];
 			// Reduction policy
-			char reduction = 'n';  // None
-			boolean  reduceByWeight = false;
-			if(cmd.hasOption("r")) {
-				String val = cmd.getOptionValue("r");
+			final String[]  reductionVals = cmd.hasOption("r") ? cmd.getOptionValue("r").split(",", -1) : new String[] {""};
+			final char[]  reductions = new char[reductionVals.length];
+			final boolean[]  reductionsByWeight = new boolean[reductionVals.length];
+			for(int i = 0; i < reductionVals.length; ++i) {
+				String val = reductionVals[i];
+				reductions[i] = 'n';  // None
 				if(!val.isEmpty()) {
 					if(val.length() >= 3 || "ams".indexOf(val.charAt(0)) == -1
 					|| (val.length() == 2 && "ow".indexOf(val.charAt(1)) == -1))
 						throw new IllegalArgumentException("The reduction parameter is out of the expected range");
-					reduction = val.charAt(0);
-					reduceByWeight = val.length() == 2 && val.charAt(1) == 'w';
+					reductions[i] = val.charAt(0);
+					reductionsByWeight[i] = val.length() == 2 && val.charAt(1) == 'w';
 				}
 			}
+			char reduction = reductions[0];
+			boolean  reduceByWeight = reductionsByWeight[0];
 			
 			// Links cutting ratio
-			float  lnscut = 0;
-			if(cmd.hasOption("c")) {
-				lnscut = Float.parseFloat(cmd.getOptionValue("c"));
-				if(lnscut < 0 || lnscut >= 1)
+			final String[]  lnscutVals = cmd.hasOption("c") ? cmd.getOptionValue("c").split(",", -1) : new String[] {"0"};
+			final float[]  lnscuts = new float[lnscutVals.length];
+			for(int i = 0; i < lnscutVals.length; ++i) {
+				lnscuts[i] = Float.parseFloat(lnscutVals[i]);
+				if(lnscuts[i] < 0 || lnscuts[i] >= 1)
 					throw new IllegalArgumentException("The cut-ratio parameter is out of the expected range");
 			}
+			float  lnscut = lnscuts[0];
 			
+			// Sparsify the graph to fit the memory budget
+			if(memBudget != 0) {
+				final Statix.MemoryPlan  plan = statix.planMemory(memBudget, simkern, cmd.hasOption("c") ? lnscut : -1
+					, cmd.hasOption("r") ? reduction : 0);
+				lnscut = plan.lnscut;
+				reduction = plan.reduction;
+			}
+
 			final boolean weighnode = cmd.hasOption("w");
-			final boolean jaccard = cmd.hasOption("j");
-			if(cmd.hasOption("p")) {
+			// Persist the inference state if required
+			if(stateDir != null && !queryState)
+				statix.saveState(stateDir, simkern);
+			if(queryEndpoint != null)
+				statix.serve(queryEndpoint, simkern, stdout);
+			else if(cmd.hasOption("estimate"))
+				statix.estimate(GraphEstimator.pairsDefault, simkern, cmd.hasOption("c") ? lnscuts : new float[] {0, 0.25f}, weighnode);
+			else if(cmd.hasOption("clusters"))
+				statix.saveCentroids(cmd.getOptionValue("clusters"), cmd.getOptionValue("centroids"), simkern);
+			else if(cmd.hasOption("p")) {
 				// Construct and output the input network for the subsequent clustering without the type inference itself
 				final String  netfile = cmd.getOptionValue("p");
 				try {
 					// Apply additional raw links reduction on preprocessing for the severe reduction policy
-					statix.saveNet(netfile, weighnode, jaccard, lnscut);
+					statix.saveNet(netfile, weighnode, simkern, lnscut, part, parts);
 				} catch(IOException e) {
 					System.err.println("ERROR on saving to the network file (" + netfile + "):\n");
 					e.printStackTrace();
-					System.exit(1);
+					return 1;
 				}
 			} else {
 				// Set output file
@@ -186,19 +379,150 @@ public class main {
 					outpfile = cmd.getOptionValue("o");
 				}
 				else {
-					outpfile = files[0];
+					outpfile = mergedNets != null ? mergedNets[0] : files[0];
 					// Replace the extension to the clustering results
 					outpfile = Statix.updateFileExtension(outpfile, Statix.extCls);  // Default extension for the output file
 				}
 				
 				// Perform type inference			
-				statix.cluster(outpfile, scale, cmd.hasOption("m"), lnscut, reduction, reduceByWeight, filteringOn, weighnode, jaccard);
+				if(sweep) {
+					// Form the clustering variants
+					List<Statix.ClusteringVariant>  variants = new ArrayList<Statix.ClusteringVariant>();
+					for(int is = 0; is < scales.length; ++is)
+						for(int ir = 0; ir < reductions.length; ++ir)
+							for(int ic = 0; ic < lnscuts.length; ++ic) {
+								final String  suffix = (scales.length >= 2 ? "_s" + scaleVals[is] : "")
+									+ (reductions.length >= 2 ? "_r" + (reductionVals[ir].isEmpty() ? "n" : reductionVals[ir]) : "")
+									+ (lnscuts.length >= 2 ? "_c" + lnscutVals[ic] : "");
+								variants.add(new Statix.ClusteringVariant(Statix.updateFileExtension(outpfile, suffix + Statix.extCls)
+									, scales[is], lnscuts[ic], reductions[ir], reductionsByWeight[ir]));
+							}
+					if(mergedNets != null)
+						Statix.cluster(mergedNets, variants, cmd.hasOption("m"), filteringOn);
+					else statix.cluster(variants, cmd.hasOption("m"), filteringOn, weighnode, simkern);
+					return 0;
+				}
+				if(mergedNets != null) {
+					Statix.cluster(mergedNets, outpfile, scale, cmd.hasOption("m"), reduction, reduceByWeight, filteringOn);
+					return 0;
+				}
+				statix.retainInstances(cmd.hasOption("centroids"));
+				statix.retainNames(cmd.hasOption("labeled"));
+				statix.cluster(outpfile, scale, cmd.hasOption("m"), lnscut, reduction, reduceByWeight, filteringOn, weighnode, simkern);
+				if(cmd.hasOption("centroids"))
+					statix.saveCentroids(outpfile, cmd.getOptionValue("centroids"), simkern);
+				if(cmd.hasOption("labeled"))
+					statix.saveLabeled(outpfile, cmd.getOptionValue("labeled"));
 			}
 		}
 		catch (ParseException e) {  //  | IllegalArgumentException
 			e.printStackTrace();
-			formatter.printHelp(appusage, desription, options, reference);
-			System.exit(1);
+			if(!batchJob)
+				formatter.printHelp(appusage, desription, options, reference);
+			return 1;
+		}
+		finally {
+			System.setOut(stdout);
+		}
+		return 0;
+	}
+
+	//! Parse the size in bytes
+	//!
+	//! @param val  - the size: <number>[k|m|g], where the suffix is binary (1024-based) and case-insensitive
+	//! @return  - the size in bytes, positive
+	static long parseSize(String val) {
+		if(val.isEmpty())
+			throw new IllegalArgumentException("The size should not be empty");
+		final int  iunit = "kmg".indexOf(Character.toLowerCase(val.charAt(val.length() - 1)));
+		final double  size = Double.parseDouble(iunit != -1 ? val.substring(0, val.length() - 1) : val)
+			* (iunit != -1 ? 1L << 10 * (iunit + 1) : 1);
+		if(!(size >= 1 && size < Long.MAX_VALUE))
+			throw new IllegalArgumentException("The size is out of the expected range: " + val);
+		return (long)size;
+	}
+
+	//! Split the command line to the arguments
+	//!
+	//! @param line  - command line, where the arguments containing spaces are double-quoted
+	//! @return  - the arguments
+	static String[] splitArgs(String line) {
+		ArrayList<String>  args = new ArrayList<String>();
+		StringBuilder  arg = new StringBuilder();
+		boolean  quoted = false;
+		boolean  started = false;  // The argument is started (might be an empty quoted one)
+		for(int i = 0; i < line.length(); ++i) {
+			final char  c = line.charAt(i);
+			if(c == '"') {
+				quoted = !quoted;
+				started = true;
+			} else if(!quoted && Character.isWhitespace(c)) {
+				if(started) {
+					args.add(arg.toString());
+					arg.setLength(0);
+					started = false;
+				}
+			} else {
+				arg.append(c);
+				started = true;
+			}
+		}
+		if(quoted)
+			throw new IllegalArgumentException("The quoted argument is not terminated: " + line);
+		if(started)
+			args.add(arg.toString());
+		return args.toArray(new String[args.size()]);
+	}
+
+	//! Execute the batch of jobs concurrently
+	//!
+	//! @param jobsFName  - jobs file, each line is the command line arguments of the job, '#' line comments are allowed
+	//! @param workers  - max number of the concurrent jobs
+	//! @return  - exit code, 1 if any job failed
+	private static int runBatch(String jobsFName, int workers) throws Exception {
+		// Load the jobs
+		final List<String>  jobs = new ArrayList<String>();
+		for(String line: Files.readAllLines(Paths.get(jobsFName))) {
+			line = line.trim();
+			if(!line.isEmpty() && !line.startsWith("#"))
+				jobs.add(line);
+		}
+		final List<String[]>  jobsArgs = new ArrayList<String[]>(jobs.size());
+		for(String job: jobs)
+			jobsArgs.add(splitArgs(job));
+		System.out.println("Executing " + jobs.size() + " jobs from " + jobsFName + " by " + workers + " workers");
+
+		// Execute the jobs, each job has own inference state
+		final long  start = System.nanoTime();
+		final ExecutorService  pool = Executors.newFixedThreadPool(Math.min(workers, Math.max(jobs.size(), 1)));
+		final List<Future<Integer>>  results = new ArrayList<Future<Integer>>(jobs.size());
+		try {
+			for(int i = 0; i < jobs.size(); ++i) {
+				final int  ijob = i;
+				results.add(pool.submit(() -> {
+					final long  jstart = System.nanoTime();
+					int  code;
+					try {
+						code = run(jobsArgs.get(ijob), true);
+					} catch(Exception err) {
+						System.err.println("ERROR, the job #" + (ijob + 1) + " is failed: " + err);
+						err.printStackTrace();
+						code = 1;
+					}
+					System.out.println(String.format("Job #%d is completed with the code %d in %.3f sec: %s"
+						, ijob + 1, code, (System.nanoTime() - jstart) / 1e9, jobs.get(ijob)));
+					return code;
+				}));
+			}
+			int  failed = 0;
+			for(Future<Integer> res: results)
+				if(res.get() != 0)
+					++failed;
+			System.out.println(String.format("The batch of %d jobs is completed in %.3f sec, failed: %d"
+				, jobs.size(), (System.nanoTime() - start) / 1e9, failed));
+			return failed != 0 ? 1 : 0;
+		} finally {
+			pool.shutdown();
 		}
 	}
 }
@@ -0,0 +1,82 @@
+package info.exascale.statix.simd;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import info.exascale.statix.PropertiesStore;
+import info.exascale.statix.ScalarIntersection;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+
+//! Vectorized intersection of the ordered property ids (SIMD all-pairs block comparison)
+//!
+//! The blocks of the vector length are compared all-to-all via the rotations of the second block
+//! and the block having the lower max id is advanced. The remained tails are merged in the scalar way.
+//! Weights of the matched properties are accumulated in order of the ids, so the result is
+//! identical to the scalar merge. The instances having the dense or skewed representation are
+//! intersected in the scalar way.
+//! @note Requires the jdk.incubator.vector module (Java 16+), compiled separately from the main sources
+public class VectorIntersection extends ScalarIntersection {
+	private static final VectorSpecies<Integer>  species = IntVector.SPECIES_PREFERRED;
+	private static final int  lanes = species.length();
+
+	private final VectorShuffle<Integer>[]  rotations;  // Rotations of the block by 1 .. lanes-1
+
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public VectorIntersection() {
+		if(lanes < 4)
+			throw new UnsupportedOperationException("The hardware does not provide SIMD for the ints, lanes: " + lanes);
+		rotations = (VectorShuffle<Integer>[])new VectorShuffle[lanes - 1];
+		for(int i = 1; i < lanes; ++i)
+			rotations[i - 1] = VectorShuffle.iota(species, i, 1, true);
+	}
+
+	@Override
+	protected double merge(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared) {
+		final ByteBuffer  ids = props.propertiesBytes();
+		final int  end1 = props.end(iinst1);
+		final int  end2 = props.end(iinst2);
+		int  i1 = props.begin(iinst1);
+		int  i2 = props.begin(iinst2);
+		double  common = 0;
+
+		// Compare the whole blocks
+		if(end1 - i1 >= lanes && end2 - i2 >= lanes) {
+			IntVector  v1 = IntVector.fromByteBuffer(species, ids, i1 * 4, ByteOrder.LITTLE_ENDIAN);
+			IntVector  v2 = IntVector.fromByteBuffer(species, ids, i2 * 4, ByteOrder.LITTLE_ENDIAN);
+			while(true) {
+				VectorMask<Integer>  matched = v1.compare(VectorOperators.EQ, v2);
+				for(VectorShuffle<Integer> rot: rotations)
+					matched = matched.or(v1.compare(VectorOperators.EQ, v2.rearrange(rot)));
+				// Accumulate the matched properties in order of the first block
+				for(long bits = matched.toLong(); bits != 0; bits &= bits - 1)
+					common += weight(weights, props.property(i1 + Long.numberOfTrailingZeros(bits)), squared);
+				// Advance the block(s) with the lower max id
+				final int  max1 = props.property(i1 + lanes - 1);
+				final int  max2 = props.property(i2 + lanes - 1);
+				if(max1 <= max2)
+					i1 += lanes;
+				if(max2 <= max1)
+					i2 += lanes;
+				if(end1 - i1 < lanes || end2 - i2 < lanes)
+					break;
+				if(max1 <= max2)
+					v1 = IntVector.fromByteBuffer(species, ids, i1 * 4, ByteOrder.LITTLE_ENDIAN);
+				if(max2 <= max1)
+					v2 = IntVector.fromByteBuffer(species, ids, i2 * 4, ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+		// Merge the tails
+		// Note: the properties of the current blocks matched to the preceding blocks
+		// can't be matched again since the properties are unique
+		return merge(props, i1, end1, i2, end2, weights, squared, common);
+	}
+
+	@Override
+	public String name()  { return kernelVector + "(" + lanes + " lanes)"; }
+}
@@ -0,0 +1,596 @@
+package info.exascale.statix;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+
+//! Self-check of the optimized evaluation paths against their straightforward counterparts
+//!
+//! The checks are executed by build.sh on the synthetic instances, any mismatch fails the build.
+//! Usage: java -ea [--add-modules jdk.incubator.vector] -cp lib/*:<classes>:<checks> info.exascale.statix.SelfCheck
+public class SelfCheck {
+	private static final double  eps = 1e-9;  // Relative tolerance of the results
+	private static final long  seed = 0x57A71C;  // Seed of the synthetic data
+	private static final int  propsNum = 1 << 14;  // The number of the synthetic properties
+	// Similarity kernels of the checks
+	private static final String[]  kernels = {SimilarityKernel.similarityCosine, SimilarityKernel.similarityJaccard
+		, SimilarityKernel.similarityOverlap, SimilarityKernel.similarityDot + ":0.01"};
+
+	public static void main(String[] args) throws IOException {
+		checkIntersection(new Random(seed));
+		checkUriDictionary(new Random(seed));
+		final Path  dir = Files.createTempDirectory("statix-check");
+		try {
+			checkPropertiesStore(new Random(seed), dir);
+			checkLinksUpdate(new Random(seed), dir);
+			checkSparseSimilarity(new Random(seed), dir);
+			checkGtCache(new Random(seed), dir);
+			checkSimilarityService(new Random(seed), dir);
+		} finally {
+			try(Stream<Path> paths = Files.walk(dir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+		System.out.println("The self-check is passed");
+	}
+
+	//! Check the intersection kernels against the straightforward intersection
+	static void checkIntersection(Random rnd) {
+		final int[][]  vecs = vectors(rnd, 160);
+		final float[]  weights = weights(rnd);
+		final PropertiesStore  props = store(vecs);
+		check(props.denseNum() != 0 && props.denseNum() != vecs.length, "Both dense and sparse instances should be formed");
+
+		List<IntersectionKernel>  kernels = new ArrayList<IntersectionKernel>();
+		kernels.add(new ScalarIntersection());
+		try {
+			kernels.add(IntersectionKernel.vectorized());
+			kernels.add(IntersectionKernel.create(IntersectionKernel.kernelVerify));
+		} catch(IllegalStateException err) {
+			System.out.println("The vectorized kernel is not checked: " + err.getMessage());
+		}
+		for(IntersectionKernel kernel: kernels) {
+			for(boolean squared: new boolean[] {false, true})
+				for(int i = 0; i < vecs.length; ++i) {
+					final double  mass1 = common(vecs[i], vecs[i], weights, squared);
+					for(int j = 0; j < vecs.length; ++j) {
+						final double  ref = common(vecs[i], vecs[j], weights, squared);
+						final double  res = kernel.common(props, i, j, weights, squared);
+						check(equal(res, ref), "The " + kernel.name() + " kernel yields " + res + " instead of " + ref
+							+ " for the instances #" + i + " and #" + j);
+						// The bounded accumulation is either exact or interrupted only on the unreachable weight,
+						// the required weight is positive and slightly relaxed as on the similarity pruning
+						final double  mass2 = common(vecs[j], vecs[j], weights, squared);
+						for(double required: new double[] {ref * 0.5, ref * (1 - SimilarityMatix.pruningSlack)
+						, Math.max(ref * 1.5, Math.min(mass1, mass2) * 0.5)}) {
+							if(required <= 0)
+								continue;
+							final double  bres = kernel.common(props, i, j, weights, squared, required, mass1, mass2);
+							check(bres == -1 ? ref < required : equal(bres, ref), "The bounded " + kernel.name()
+								+ " kernel yields " + bres + " instead of " + ref + " for the required " + required
+								+ " of the instances #" + i + " and #" + j);
+						}
+					}
+				}
+			System.out.println("The " + kernel.name() + " intersection kernel is checked");
+		}
+
+		// The verification detects the bounded accumulation interrupted on the reachable weight
+		final IntersectionKernel  verified = new VerifiedIntersection(new ScalarIntersection() {
+			@Override
+			public double common(PropertiesStore props, int iinst1, int iinst2, float[] weights, boolean squared
+			, double required, double mass1, double mass2) {
+				return -1;
+			}
+		}, new ScalarIntersection());
+		int  detected = 0;
+		for(int i = 1; i < vecs.length; ++i) {
+			final double  ref = common(vecs[i - 1], vecs[i], weights, false);
+			if(ref <= 0)
+				continue;
+			try {
+				verified.common(props, i - 1, i, weights, false, ref * 0.5, common(vecs[i - 1], vecs[i - 1], weights, false)
+					, common(vecs[i], vecs[i], weights, false));
+			} catch(IllegalStateException err) {
+				++detected;
+			}
+		}
+		check(detected != 0, "The verified kernel does not detect the invalid interruption of the bounded accumulation");
+	}
+
+	//! Check the lookups of the URI dictionary and its serialization round trip
+	static void checkUriDictionary(Random rnd) throws IOException {
+		final String[]  namespaces = {"http://dbpedia.org/resource/", "http://dbpedia.org/ontology#", "urn:", ""
+			, "http://example.org/\u043f\u0440\u0438\u043c\u0435\u0440/"};
+		List<String>  terms = new ArrayList<String>();  // Unique terms in order of the addition
+		// Note: the small capacity causes the growth of the hash table
+		UriDictionary  dict = new UriDictionary(4);
+		for(int i = 0; i < 2000; ++i) {
+			final String  term = namespaces[rnd.nextInt(namespaces.length)] + (i % 11 != 0 ? "Term_" : "\u00e9")
+				+ rnd.nextInt(1500) + (i % 13 != 0 ? "" : "/");
+			final int  id = dict.add(term);
+			if(id == terms.size())
+				terms.add(term);
+			check(terms.get(id).equals(term), "The term '" + term + "' has id " + id + " of '" + terms.get(id) + "'");
+		}
+		check(dict.size() == terms.size() && dict.namespaces() >= namespaces.length
+			, "The dictionary has " + dict.size() + " terms instead of " + terms.size());
+		checkTerms(dict, terms, "added");
+		dict.trim();
+		checkTerms(dict, terms, "trimmed");
+
+		ByteArrayOutputStream  bytes = new ByteArrayOutputStream();
+		try(DataOutputStream  out = new DataOutputStream(bytes)) {
+			dict.save(out);
+		}
+		try(DataInputStream  inp = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			dict = UriDictionary.load(inp);
+		}
+		checkTerms(dict, terms, "loaded");
+		// Concurrent re-entrant lookups
+		final UriDictionary  cdict = dict;
+		final ConcurrentLinkedQueue<String>  errors = new ConcurrentLinkedQueue<String>();
+		final Thread[]  threads = new Thread[4];
+		for(int it = 0; it < threads.length; ++it) {
+			final int  offset = it * terms.size() / threads.length;
+			threads[it] = new Thread(() -> {
+				final UriDictionary.Lookup  lookup = cdict.lookup();
+				for(int i = 0; i < terms.size() * 50; ++i) {
+					final int  id = (offset + i) % terms.size();
+					if(lookup.id(terms.get(id)) != id)
+						errors.add(terms.get(id));
+				}
+			});
+			threads[it].start();
+		}
+		join(threads);
+		check(errors.isEmpty(), "The concurrent lookups mismatch " + errors.size() + " terms, the first one: " + errors.peek());
+		// The loaded dictionary is extendable
+		final String  term = namespaces[0] + "Extra";
+		check(dict.add(term) == terms.size() && dict.term(terms.size()).equals(term), "The term is not added to the loaded dictionary");
+		System.out.println("The URI dictionary of " + terms.size() + " terms and " + dict.namespaces() + " namespaces is checked");
+	}
+
+	//! Check that the dictionary contains exactly the specified terms
+	//!
+	//! @param dict  - the dictionary
+	//! @param terms  - the terms by their ids
+	//! @param stage  - the dictionary stage to be reported on a mismatch
+	static void checkTerms(UriDictionary dict, List<String> terms, String stage) throws IOException {
+		check(dict.size() == terms.size(), "The " + stage + " dictionary has " + dict.size() + " terms instead of " + terms.size());
+		for(int id = 0; id < terms.size(); ++id) {
+			final String  term = terms.get(id);
+			final byte[]  encoded = term.getBytes(StandardCharsets.UTF_8);
+			ByteArrayOutputStream  out = new ByteArrayOutputStream();
+			dict.write(id, out);
+			check(dict.id(term) == id && dict.term(id).equals(term) && dict.termBytes(id) == encoded.length
+				&& Arrays.equals(out.toByteArray(), encoded), "The " + stage + " dictionary mismatches the term #" + id
+				+ " '" + term + "': '" + dict.term(id) + "'");
+		}
+		check(dict.id("http://dbpedia.org/resource/Absent") == -1, "The absent term is found in the " + stage + " dictionary");
+	}
+
+	//! Check the properties store built, mapped from the snapshot and updated
+	//!
+	//! @param rnd  - random generator
+	//! @param dir  - working directory of the snapshot
+	static void checkPropertiesStore(Random rnd, Path dir) throws IOException {
+		final int[][]  vecs = vectors(rnd, 120);
+		final PropertiesStore  props = store(vecs);
+		checkStore(props, vecs, "built");
+		final Path  snapshot = dir.resolve("props.snap");
+		props.save(snapshot);
+		final PropertiesStore  mapped = PropertiesStore.map(snapshot);
+		checkStore(mapped, vecs, "mapped");
+
+		// Replace some vectors and append the new instances, some of which are empty
+		final int[][]  uvecs = Arrays.copyOf(vecs, vecs.length + 20);
+		final int[][]  extra = vectors(rnd, 60);
+		Map<Integer, InstanceProperties>  updated = new HashMap<Integer, InstanceProperties>();
+		for(int i = 0; i < uvecs.length; ++i) {
+			if(i < vecs.length ? i % 7 != 3 : i % 3 == 0) {
+				if(uvecs[i] == null)
+					uvecs[i] = new int[0];
+				continue;
+			}
+			uvecs[i] = extra[i % extra.length];
+			updated.put(i, instance(uvecs[i]));
+		}
+		checkStore(mapped.update(uvecs.length, updated), uvecs, "updated");
+		System.out.println("The properties store of " + props.size() + " instances (" + props.denseNum() + " dense) is checked");
+	}
+
+	//! Check that the store contains exactly the specified vectors and has the bitsets of the dense ones
+	//!
+	//! @param props  - the store
+	//! @param vecs  - the property vectors by the instance index
+	//! @param stage  - the store stage to be reported on a mismatch
+	static void checkStore(PropertiesStore props, int[][] vecs, String stage) {
+		check(props.size() == vecs.length && props.entries() == Arrays.stream(vecs).mapToInt(vec -> vec.length).sum()
+			, "The " + stage + " store has " + props.size() + " instances and " + props.entries() + " properties");
+		int  denseNum = 0;
+		for(int i = 0; i < vecs.length; ++i) {
+			final int[]  vec = vecs[i];
+			boolean  matched = props.count(i) == vec.length && props.end(i) - props.begin(i) == vec.length;
+			for(int k = 0; matched && k < vec.length; ++k)
+				matched = props.property(props.begin(i) + k) == vec[k];
+			check(matched, "The " + stage + " store mismatches the properties of the instance #" + i);
+			// The instance is dense if its bitset words are not more than the half of its properties
+			final boolean  dense = vec.length >= PropertiesStore.denseMin
+				&& ((vec[vec.length - 1] >>> 6) - (vec[0] >>> 6) + 1) * 2 <= vec.length;
+			check(props.dense(i) == dense, "The " + stage + " store has the instance #" + i + " dense: " + props.dense(i));
+			if(!dense)
+				continue;
+			++denseNum;
+			for(int prop = vec[0] - 70; prop <= vec[vec.length - 1] + 70; ++prop)
+				check(props.hasBit(i, prop) == (Arrays.binarySearch(vec, prop) >= 0), "The " + stage
+					+ " store mismatches the bit of the property " + prop + " of the instance #" + i);
+		}
+		check(props.denseNum() == denseNum, "The " + stage + " store has " + props.denseNum() + " dense instances instead of " + denseNum);
+	}
+
+	//! Check the incremental update of the similarity links against their full evaluation
+	//!
+	//! @param rnd  - random generator
+	//! @param dir  - working directory of the synthetic datasets
+	static void checkLinksUpdate(Random rnd, Path dir) throws IOException {
+		final Path  base = dir.resolve("base.nt");
+		final Path  delta = dir.resolve("delta.nt");
+		// The delta extends some loaded instances and introduces the new ones
+		triples(rnd, base, 0, 600, 3000);
+		triples(rnd, delta, 540, 660, 200);
+		for(String kernel: kernels) {
+			final SimilarityKernel  simkern = SimilarityKernel.create(kernel);
+			// Form the incremental state of the loaded dataset
+			final Path  state = dir.resolve("state-" + simkern.name());
+			SimilarityMatix  csmat = load(base);
+			csmat.saveState(state);
+
+			csmat = new SimilarityMatix();
+			csmat.loadState(state, false);
+			SimilarityLinks  links = SimilarityLinks.evaluate(csmat, simkern);
+			// Note: the weights tolerance updates a few weights retaining most of the instances unaffected
+			final BitSet  affected = csmat.applyDelta(delta.toString(), 0.1f);
+			check(!affected.isEmpty() && affected.cardinality() < csmat.instancesNum() / 2
+				, "The delta should affect a part of the instances: " + affected.cardinality());
+			links.update(csmat, simkern, affected);
+			final SimilarityLinks  full = SimilarityLinks.evaluate(csmat, simkern);
+			check(links.size() == full.size(), "The updated links cover " + links.size() + " instances instead of " + full.size());
+			for(int i = 0; i < full.size(); ++i) {
+				boolean  matched = links.degree(i) == full.degree(i);
+				for(int k = 0; matched && k < full.degree(i); ++k)
+					matched = links.id(i, k) == full.id(i, k) && links.weight(i, k) == full.weight(i, k);
+				check(matched, "The updated " + simkern.name() + " links of the instance #" + i
+					+ " differ from the evaluated ones, affected: " + affected.get(i));
+			}
+			System.out.println("The " + simkern.name() + " links update of " + affected.cardinality() + " instances is checked");
+		}
+	}
+
+	//! Check the sparse similarity matrix against the similarities evaluated without the pruning
+	//!
+	//! @param rnd  - random generator
+	//! @param dir  - working directory of the synthetic datasets
+	static void checkSparseSimilarity(Random rnd, Path dir) throws IOException {
+		final Path  dataset = dir.resolve("sparse.nt");
+		triples(rnd, dataset, 0, 400, 2400);
+		final SimilarityMatix  csmat = load(dataset);
+		final int  instsNum = csmat.instancesNum();
+		for(String kernel: kernels) {
+			final SimilarityKernel  simkern = SimilarityKernel.create(kernel);
+			// Reference similarities of the upper triangle evaluated without the pruning
+			final double[]  refs = new double[instsNum * (instsNum - 1) / 2];
+			for(int i = 0, k = 0; i < instsNum; ++i)
+				for(int j = i + 1; j < instsNum; ++j)
+					refs[k++] = csmat.similarity(i, j, simkern);
+			// The thresholds are the quantiles of the positive similarities, since their scale depends on the kernel
+			final double[]  sims = Arrays.stream(refs).filter(sim -> sim > 0).sorted().toArray();
+			check(sims.length != 0, "The instances should be similar");
+			for(float threshold: new float[] {0, (float)sims[sims.length / 2], (float)sims[sims.length * 9 / 10]}) {
+				final SparseSimilarity  smat = SparseSimilarity.evaluate(csmat, simkern, threshold);
+				check(smat.size() == instsNum, "The sparse matrix has " + smat.size() + " rows instead of " + instsNum);
+				int  entries = 0;  // The number of expected entries
+				int  margin = 0;  // The number of entries at the threshold
+				for(int i = 0, k = 0; i < instsNum; ++i)
+					for(int j = i + 1; j < instsNum; ++j) {
+						final double  ref = refs[k++];
+						// Note: the pairs at the threshold can be pruned by the rounding errors
+						if(ref > 0 && Math.abs(ref - threshold) <= eps) {
+							++margin;
+							continue;
+						}
+						final boolean  stored = ref > 0 && ref >= threshold;
+						if(stored)
+							++entries;
+						final float  sim = smat.get(i, j);
+						check(stored ? sim == (float)ref : sim == 0, "The sparse " + simkern.name() + " similarity of #"
+							+ i + " and #" + j + " is " + sim + " instead of " + (stored ? (float)ref : 0)
+							+ " for the threshold " + threshold);
+					}
+				check(entries != 0 && smat.entries() >= entries && smat.entries() <= entries + margin
+					, "The sparse matrix has " + smat.entries() + " entries instead of " + entries);
+			}
+			System.out.println("The " + simkern.name() + " sparse similarity matrix is checked");
+		}
+	}
+
+	//! Check the property weights evaluated from the GT cache against the ones evaluated from the GT dataset
+	//!
+	//! @param rnd  - random generator
+	//! @param dir  - working directory of the synthetic datasets
+	static void checkGtCache(Random rnd, Path dir) throws IOException {
+		final Path  dataset = dir.resolve("input.nt");
+		final Path  gt = dir.resolve("gt.nt");
+		final Path  gtDirty = dir.resolve("gt-dirty.nt");
+		triples(rnd, dataset, 0, 300, 1500);
+		// Note: the GT contains untyped instances, the properties absent in the input and the repeated
+		// properties having distinct values, the dirty GT additionally has the duplicated triples
+		try(BufferedWriter  out = Files.newBufferedWriter(gt); BufferedWriter  outDirty = Files.newBufferedWriter(gtDirty)) {
+			final String  prefix = "<http://example.org/";
+			for(int inst = 0; inst < 500; ++inst) {
+				List<String>  lines = new ArrayList<String>();
+				if(inst % 10 != 0)
+					for(int it = 0, ntypes = 1 + rnd.nextInt(2), type = rnd.nextInt(9); it < ntypes; ++it)
+						lines.add(prefix + "gt/" + inst + "> " + SimilarityMatix.typeProperty + " " + prefix + "type/"
+							+ (type + it) % 9 + "> .\n");
+				for(int ip = 0, nprops = rnd.nextInt(8); ip < nprops; ++ip)
+					lines.add(prefix + "gt/" + inst + "> " + prefix + "prop/" + (8 + rnd.nextInt(72)) + "> \"val " + ip + "\" .\n");
+				for(String triple: lines) {
+					out.write(triple);
+					outDirty.write(triple);
+					if(rnd.nextInt(4) == 0)
+						outDirty.write(triple);
+				}
+			}
+		}
+		final HashMap<String, Integer>  propsocrs = new SimilarityMatix().loadInputData(dataset.toString(), false, null);
+		for(int variant = 0; variant < 3; ++variant) {
+			// The dirty GT is checked only in the dirty mode
+			final boolean  dirty = variant != 0;
+			final String  gtname = (variant != 2 ? gt : gtDirty).toString();
+			final SimilarityMatix  csmat = new SimilarityMatix();
+			csmat.loadGtData(gtname, propsocrs, dirty);
+			final String  cache = dir.resolve("gt-" + variant + ".gtc").toString();
+			// The cache is formed on the first opening and loaded on the second one
+			for(int i = 0; i < 2; ++i) {
+				final SimilarityMatix  ccsmat = new SimilarityMatix();
+				ccsmat.loadGtData(GtCache.open(gtname, cache, dirty), propsocrs);
+				check(csmat.propsWeights.size() == propsocrs.size() && ccsmat.propsWeights.equals(csmat.propsWeights)
+					, "The property weights evaluated from the " + (i == 0 ? "formed" : "loaded") + " GT cache of "
+					+ gtname + (dirty ? " in the dirty mode" : "") + " differ: " + ccsmat.propsWeights + " instead of " + csmat.propsWeights);
+			}
+		}
+		System.out.println("The property weights evaluation from the GT cache is checked");
+	}
+
+	//! Check the responses of the similarity query service to the concurrent clients
+	//!
+	//! @param rnd  - random generator
+	//! @param dir  - working directory of the synthetic datasets
+	static void checkSimilarityService(Random rnd, Path dir) throws IOException {
+		final Path  dataset = dir.resolve("service.nt");
+		// Note: the instances of several namespaces have the names of distinct lengths
+		try(BufferedWriter  out = Files.newBufferedWriter(dataset)) {
+			final String[]  namespaces = {"<http://example.org/ent/", "<http://example.org/resource/\u00e9/", "<urn:x#"};
+			for(int i = 0; i < 3000; ++i) {
+				final int  inst = rnd.nextInt(600);
+				final double  r = rnd.nextDouble();
+				out.write(namespaces[inst % namespaces.length] + "I" + inst + "_" + "x".repeat(inst % 17) + "> <http://example.org/prop/"
+					+ (int)(64 * r * r) + "> \"val\" .\n");
+			}
+		}
+		final SimilarityMatix  csmat = load(dataset);
+		final SimilarityService  service = new SimilarityService(csmat, SimilarityKernel.create(SimilarityKernel.similarityCosine));
+		// Requests of the instances and properties sets, and their responses of the single client
+		final int  instsNum = csmat.instancesNum();
+		final String[]  requests = new String[instsNum + instsNum / 2];
+		for(int i = 0; i < requests.length; ++i) {
+			if(i < instsNum) {
+				requests[i] = "inst 3 " + csmat.instanceName(i);
+				continue;
+			}
+			StringBuilder  request = new StringBuilder("props 3");
+			for(int ip = 8 + rnd.nextInt(24); ip >= 0; --ip)
+				request.append(' ').append(csmat.propertyName(rnd.nextInt(csmat.propertiesNum())));
+			requests[i] = request.append(" http://example.org/prop/absent").toString();
+		}
+		final String[]  responses = serve(service, requests, 0);
+
+		// Each concurrent client traverses the requests from own offset
+		final int  clients = 4;
+		final ConcurrentLinkedQueue<String>  errors = new ConcurrentLinkedQueue<String>();
+		final Thread[]  threads = new Thread[clients];
+		for(int ic = 0; ic < clients; ++ic) {
+			final int  offset = ic * requests.length / clients;
+			threads[ic] = new Thread(() -> {
+				try {
+					for(int iter = 0; iter < 8; ++iter) {
+						final String[]  res = serve(service, requests, offset);
+						for(int i = 0; i < requests.length; ++i)
+							if(!res[i].equals(responses[i]))
+								errors.add("'" + requests[i] + "' yields '" + res[i] + "' instead of '" + responses[i] + "'");
+					}
+				} catch(IOException | RuntimeException err) {
+					errors.add(err.toString());
+				}
+			});
+			threads[ic].start();
+		}
+		join(threads);
+		check(errors.isEmpty(), "The concurrent clients of the similarity service got " + errors.size()
+			+ " wrong responses, the first one: " + errors.peek());
+		System.out.println("The similarity service of " + clients + " concurrent clients is checked");
+	}
+
+	//! Serve the requests by a single session
+	//!
+	//! @param service  - the similarity service
+	//! @param requests  - the requests
+	//! @param offset  - the first request to be served, the requests are served cyclically
+	//! @return  - the responses by the requests
+	static String[] serve(SimilarityService service, String[] requests, int offset) throws IOException {
+		StringBuilder  input = new StringBuilder();
+		for(int i = 0; i < requests.length; ++i)
+			input.append(requests[(offset + i) % requests.length]).append('\n');
+		ByteArrayOutputStream  output = new ByteArrayOutputStream();
+		service.session().serve(new ByteArrayInputStream(input.toString().getBytes(StandardCharsets.UTF_8)), output);
+		// Each response is terminated by the empty line
+		final String[]  parts = output.toString(StandardCharsets.UTF_8).split("\n\n", -1);
+		check(parts.length == requests.length + 1, "The service yields " + (parts.length - 1) + " responses instead of " + requests.length);
+		String[]  responses = new String[requests.length];
+		for(int i = 0; i < requests.length; ++i)
+			responses[(offset + i) % requests.length] = parts[i];
+		return responses;
+	}
+
+	//! Load the dataset weighing its properties by the inverse square root of their occurrences
+	//!
+	//! @param dataset  - the N-Triples file
+	//! @return  - the loaded instances
+	static SimilarityMatix load(Path dataset) throws IOException {
+		final SimilarityMatix  csmat = new SimilarityMatix();
+		final HashMap<String, Integer>  ocrs = csmat.loadInputData(dataset.toString(), false, null);
+		csmat.propsWeights = new HashMap<String, Float>();
+		for(String prop: ocrs.keySet())
+			csmat.propsWeights.put(prop, (float)Math.sqrt(1. / ocrs.get(prop)));
+		return csmat;
+	}
+
+	//! Write the synthetic triples of the instances having the literal and object properties
+	//!
+	//! @param rnd  - random generator
+	//! @param file  - the output N-Triples file
+	//! @param first  - the first instance id
+	//! @param end  - the instance id after the last one
+	//! @param num  - the number of triples
+	static void triples(Random rnd, Path file, int first, int end, int num) throws IOException {
+		final String  prefix = "<http://example.org/";
+		try(BufferedWriter  out = Files.newBufferedWriter(file)) {
+			for(int i = 0; i < num; ++i) {
+				final int  inst = first + (i < end - first ? i : rnd.nextInt(end - first));
+				final double  r = rnd.nextDouble();
+				final int  prop = (int)(64 * r * r);
+				out.write(prefix + "ent/" + inst + "> " + prefix + "prop/" + prop + "> "
+					+ (prop % 3 != 0 ? "\"val " + rnd.nextInt(8) + "\"" : prefix + "ent/" + rnd.nextInt(end) + ">") + " .\n");
+			}
+		}
+	}
+
+	//! Synthetic property vectors of the instances covering all representations
+	//!
+	//! @param rnd  - random generator
+	//! @param num  - the number of instances
+	//! @return  - ordered unique property ids by the instance index
+	static int[][] vectors(Random rnd, int num) {
+		int[][]  vecs = new int[num][];
+		for(int i = 0; i < num; ++i) {
+			switch(i % 5) {
+			case 0:  // Empty and tiny instances
+				vecs[i] = sample(rnd, 0, propsNum, i % 10 == 0 ? 0 : 1 + rnd.nextInt(3));
+				break;
+			case 1:  // Sparse instances
+				vecs[i] = sample(rnd, 0, propsNum, 4 + rnd.nextInt(28));
+				break;
+			case 2: {  // Dense instances spanning a narrow range of the ids
+				final int  base = rnd.nextInt(propsNum >> 4);
+				vecs[i] = sample(rnd, base, base + 256, 64 + rnd.nextInt(96));
+				break;
+			}
+			case 3:  // Large sparse instances (galloping of the small ones)
+				vecs[i] = sample(rnd, 0, propsNum, 800 + rnd.nextInt(400));
+				break;
+			default:  // Medium sparse instances (several blocks of the vectorized merge)
+				vecs[i] = sample(rnd, 0, propsNum, 40 + rnd.nextInt(120));
+			}
+		}
+		return vecs;
+	}
+
+	//! Ordered unique ids sampled with the skew towards the lower ids (popular properties)
+	//!
+	//! @param rnd  - random generator
+	//! @param lo  - min id
+	//! @param hi  - max id + 1
+	//! @param num  - the number of samples (the number of unique ids is not larger)
+	//! @return  - the ids
+	static int[] sample(Random rnd, int lo, int hi, int num) {
+		int[]  ids = new int[num];
+		for(int i = 0; i < num; ++i) {
+			final double  r = rnd.nextDouble();
+			ids[i] = lo + (int)((hi - lo) * r * r);
+		}
+		return Arrays.stream(ids).sorted().distinct().toArray();
+	}
+
+	//! Synthetic weights of the properties E (0, 1]
+	static float[] weights(Random rnd) {
+		float[]  weights = new float[propsNum];
+		for(int i = 0; i < propsNum; ++i)
+			weights[i] = i % 7 == 0 ? 1 : 1 - rnd.nextFloat();
+		return weights;
+	}
+
+	//! Build the properties store from the property vectors
+	static PropertiesStore store(int[][] vecs) {
+		List<InstanceProperties>  insts = new ArrayList<InstanceProperties>(vecs.length);
+		for(int[] vec: vecs)
+			insts.add(instance(vec));
+		return PropertiesStore.build(insts);
+	}
+
+	//! Sealed instance properties formed from the property vector
+	static InstanceProperties instance(int[] vec) {
+		InstanceProperties  inst = new InstanceProperties();
+		for(int prop: vec)
+			inst.add(prop);
+		inst.seal(true);
+		return inst;
+	}
+
+	//! Straightforward accumulation of the weights of the common properties in order of the ids
+	static double common(int[] vec1, int[] vec2, float[] weights, boolean squared) {
+		double  common = 0;
+		for(int prop: vec1)
+			if(Arrays.binarySearch(vec2, prop) >= 0)
+				common += squared ? (double)weights[prop] * weights[prop] : weights[prop];
+		return common;
+	}
+
+	//! Wait for the threads completion
+	static void join(Thread[] threads) {
+		for(Thread thread: threads)
+			try {
+				thread.join();
+			} catch(InterruptedException err) {
+				throw new IllegalStateException("The check is interrupted", err);
+			}
+	}
+
+	//! Whether the result equals to the reference value
+	static boolean equal(double res, double ref) {
+		return Math.abs(res - ref) <= eps * Math.max(1, Math.abs(ref));
+	}
+
+	//! Fail the check if the condition is not held
+	static void check(boolean cond, String msg) {
+		if(!cond)
+			throw new IllegalStateException(msg);
+	}
+}